@@ -0,0 +1,64 @@
+package io.dogy.dao.impl;
+
+import io.dogy.dao.impl.hbase.BinaryRowKeyCodec;
+import io.dogy.dao.impl.hbase.IRowKeyCodec;
+import io.dogy.dao.impl.hbase.StringRowKeyCodec;
+import io.dogy.model.UserNotify;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HBaseUserNotifyDaoBenchmark {
+
+    private final IRowKeyCodec stringKeyCodec = new StringRowKeyCodec(6);
+    private final IRowKeyCodec binaryKeyCodec = new BinaryRowKeyCodec(6, false);
+    private UserNotify userNotify;
+    private Result result;
+
+    @Setup
+    public void setup() throws IOException {
+        userNotify = UserNotify.createDumbObject();
+
+        // a Result must hold its cells in sorted order, the same way the region server returns them
+        List<Cell> cells = new ArrayList<>();
+        for (List<Cell> familyCells : HBaseUserNotifyDao.map2Put(userNotify).getFamilyCellMap().values()) {
+            cells.addAll(familyCells);
+        }
+        cells.sort(KeyValue.COMPARATOR);
+        result = Result.create(cells);
+    }
+
+    @Benchmark
+    public byte[] stringRowKey() {
+        return stringKeyCodec.encode(userNotify);
+    }
+
+    @Benchmark
+    public byte[] binaryRowKey() {
+        return binaryKeyCodec.encode(userNotify);
+    }
+
+    @Benchmark
+    public Put map2Put() throws IOException {
+        return HBaseUserNotifyDao.map2Put(userNotify);
+    }
+
+    @Benchmark
+    public UserNotify map2UserNotify() throws IOException {
+        return HBaseUserNotifyDao.map2UserNotify(result);
+    }
+
+}
@@ -0,0 +1,35 @@
+package io.dogy.dao.impl;
+
+import com.influxdb.client.write.Point;
+import io.dogy.model.UserNotify;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfluxDbUserNotifyDaoBenchmark {
+
+    private UserNotify userNotify;
+
+    @Setup
+    public void setup() {
+        userNotify = UserNotify.createDumbObject();
+    }
+
+    @Benchmark
+    public Point map2Point() throws IOException {
+        return InfluxDbUserNotifyDao.map2Point(userNotify);
+    }
+
+    @Benchmark
+    public String toLineProtocol() throws IOException {
+        return InfluxDbUserNotifyDao.map2Point(userNotify).toLineProtocol();
+    }
+
+}
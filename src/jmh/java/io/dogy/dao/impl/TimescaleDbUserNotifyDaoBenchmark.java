@@ -0,0 +1,72 @@
+package io.dogy.dao.impl;
+
+import io.dogy.model.UserNotify;
+import io.dogy.utility.Util;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimescaleDbUserNotifyDaoBenchmark {
+
+    private UserNotify userNotify;
+    private List<UserNotify> chunk;
+    private Connection connection;
+    private ResultSet resultSet;
+
+    @Setup
+    public void setup() throws SQLException, IOException {
+        userNotify = UserNotify.createDumbObject();
+        chunk = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            chunk.add(UserNotify.createDumbObject());
+        }
+
+        // an in-memory H2 result set stands in for the PostgreSQL one, so only the mapping cost is measured
+        connection = DriverManager.getConnection("jdbc:h2:mem:");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE notify (\"timestamp\" TIMESTAMP, \"user_id\" VARCHAR," +
+                    " \"notify_id\" VARCHAR, \"data\" VARBINARY)");
+        }
+        try (PreparedStatement ps = connection.prepareStatement("INSERT INTO notify VALUES (?, ?, ?, ?)")) {
+            ps.setTimestamp(1, new Timestamp(userNotify.getTimestamp()));
+            ps.setString(2, userNotify.getUserID());
+            ps.setString(3, userNotify.getNotifyID());
+            ps.setBytes(4, Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData()));
+            ps.executeUpdate();
+        }
+        resultSet = connection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)
+                .executeQuery("SELECT \"timestamp\", \"user_id\", \"notify_id\", \"data\" FROM notify");
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public byte[] encodeCopyText() throws IOException {
+        return TimescaleDbUserNotifyDao.encodeCopyText(chunk);
+    }
+
+    @Benchmark
+    public byte[] encodeCopyBinary() throws IOException {
+        return TimescaleDbUserNotifyDao.encodeCopyBinary(chunk);
+    }
+
+    @Benchmark
+    public UserNotify mapRow() throws SQLException {
+        resultSet.first();
+        return TimescaleDbUserNotifyDao.ROW_MAPPER.mapRow(resultSet, 0);
+    }
+
+}
@@ -0,0 +1,19 @@
+package io.dogy.model;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserNotifyBenchmark {
+
+    @Benchmark
+    public UserNotify createDumbObject() {
+        return UserNotify.createDumbObject();
+    }
+
+}
@@ -3,6 +3,7 @@ package io.dogy;
 import io.dogy.dao.IUserNotifyDao;
 import io.dogy.dao.impl.*;
 import io.dogy.service.BenchmarkService;
+import io.dogy.utility.Util;
 import org.apache.commons.cli.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,6 +66,22 @@ public class App implements CommandLineRunner {
         verboseOpt.setRequired(false);
         options.addOption(verboseOpt);
 
+        Option rateOpt = new Option("r", "rate", true, "open-loop target rate option, e.g. 20000/s");
+        rateOpt.setRequired(false);
+        options.addOption(rateOpt);
+
+        Option fetchConcurrencyOpt = new Option("fc", "fetch-concurrency", true, "max in-flight async fetches option, 0 skips the async fetch phases");
+        fetchConcurrencyOpt.setRequired(false);
+        options.addOption(fetchConcurrencyOpt);
+
+        Option retentionOpt = new Option("rt", "retention", true, "retention benchmark option");
+        retentionOpt.setRequired(false);
+        options.addOption(retentionOpt);
+
+        Option scrollDepthOpt = new Option("sd", "scroll-depth", true, "pages per cursor scroll option, 0 skips the scroll phase");
+        scrollDepthOpt.setRequired(false);
+        options.addOption(scrollDepthOpt);
+
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
 
@@ -78,6 +95,10 @@ public class App implements CommandLineRunner {
             int numFetchThread = Integer.parseInt(cmd.getOptionValue(numFetchThreadOpt.getLongOpt(), "1"));
             int numBootstrap = Integer.parseInt(cmd.getOptionValue(numBootstrapOpt.getLongOpt(), "0"));
             boolean verbose = Boolean.parseBoolean(cmd.getOptionValue(verboseOpt.getLongOpt(), "false"));
+            double rate = Util.parseRate(cmd.getOptionValue(rateOpt.getLongOpt(), "0"));
+            int fetchConcurrency = Integer.parseInt(cmd.getOptionValue(fetchConcurrencyOpt.getLongOpt(), "0"));
+            boolean retention = Boolean.parseBoolean(cmd.getOptionValue(retentionOpt.getLongOpt(), "false"));
+            int scrollDepth = Integer.parseInt(cmd.getOptionValue(scrollDepthOpt.getLongOpt(), "0"));
 
             AutowireCapableBeanFactory factory = context.getAutowireCapableBeanFactory();
 
@@ -139,11 +160,23 @@ public class App implements CommandLineRunner {
                             numBootstrap
                     );
                     break;
+                case 6: // in-memory reference backend
+                    IUserNotifyDao inMemoryUserNotifyDao = factory.createBean(InMemoryUserNotifyDao.class);
+                    benchmarkService = new BenchmarkService(
+                            inMemoryUserNotifyDao,
+                            numWriteEpoch,
+                            numWriteThread,
+                            numFetchEpoch,
+                            numFetchThread,
+                            numBootstrap
+                    );
+                    break;
                 default:
                     throw new IllegalStateException("Unexpected value: " + mode);
             }
 
             benchmarkService.setVerbose(verbose);
+            benchmarkService.setTargetRate(rate);
             benchmarkService.bootstrap();
             long minTime = System.currentTimeMillis();
 
@@ -167,6 +200,20 @@ public class App implements CommandLineRunner {
             benchmarkService.benchmarkFetchAscRampUp(10, minTime, maxTime);
             benchmarkService.benchmarkFetchDescRampUp(10, minTime, maxTime);
 
+            if (fetchConcurrency > 0) {
+                benchmarkService.benchmarkFetchAsync(false, fetchConcurrency, minTime, maxTime);
+                benchmarkService.benchmarkFetchAsync(true, fetchConcurrency, minTime, maxTime);
+            }
+
+            if (scrollDepth > 0) {
+                benchmarkService.benchmarkScroll(scrollDepth);
+            }
+
+            if (retention) {
+                benchmarkService.bootstrap();
+                benchmarkService.benchmarkRetention();
+            }
+
             System.exit(0);
         } catch (ParseException e) {
             formatter.printHelp("utility-name", options);
@@ -24,14 +24,33 @@ public class Settings {
     private static final Object mutex = new Object();
 
     public int EVENT_LOOP_COUNT = 10;
+    public int READ_POOL_SIZE = 64;
+    public int PAGE_SIZE = 20;
     public int TTL_IN_SECONDS = (int) Duration.ofDays(3).getSeconds();
 
+    public int BATCH_QUEUE_CAPACITY = 100000;
+    public String BATCH_OVERFLOW_POLICY = "BLOCK";
+    public int BATCH_INITIAL_SIZE = 100;
+    public int BATCH_MIN_SIZE = 10;
+    public int BATCH_MAX_SIZE = 2000;
+    public long BATCH_LINGER_MS = 5;
+    public long BATCH_TARGET_FLUSH_MS = 50;
+
     public Set<String> HBASE_IP = Collections.singleton("localhost");
     public int HBASE_PORT = 2181;
     public String HBASE_LOCATION = "/hbase-unsecure";
     public int HBASE_SALT = 6;
+    public String HBASE_KEY_CODEC = "STRING";
     public String HBASE_TABLE = "timeseries_tbl";
     public boolean HBASE_COMPRESSION = false;
+    public String HBASE_COMPRESSION_ALGORITHM = "SNAPPY";
+    public String HBASE_DATA_BLOCK_ENCODING = "NONE";
+    public String HBASE_CELL_ENCODING = "COLUMNS";
+    public boolean HBASE_CELL_TIMESTAMP = false;
+    public int HBASE_ROW_TTL_SECONDS = 0;
+    public String HBASE_WRITE_MODE = "BATCH";
+    public long HBASE_WRITE_BUFFER_SIZE = 4 * 1024 * 1024;
+    public long HBASE_FLUSH_INTERVAL_MS = 50;
 
     public String TIMESCALEDB_IP = "localhost";
     public int TIMESCALEDB_PORT = 5432;
@@ -40,6 +59,20 @@ public class Settings {
     public String TIMESCALEDB_USER = "postgres";
     public String TIMESCALEDB_PASSWORD = "";
     public int TIMESCALEDB_POOL_SIZE = 50;
+    public String TIMESCALEDB_POOL_TYPE = "DBCP";
+    public long TIMESCALEDB_POOL_VALIDATION_IDLE_MS = 30000;
+    public long TIMESCALEDB_POOL_TIMEOUT_MS = 30000;
+    public String TIMESCALEDB_WRITE_MODE = "BATCH_INSERT";
+    public int TIMESCALEDB_BATCH_SIZE = 1000;
+    public boolean TIMESCALEDB_REWRITE_BATCHED_INSERTS = false;
+    public int TIMESCALEDB_PREPARE_THRESHOLD = 1;
+    public boolean TIMESCALEDB_BINARY_TRANSFER = true;
+    public String TIMESCALEDB_SCHEMA = "TEXT";
+    public String TIMESCALEDB_PAYLOAD = "JSONB";
+    public boolean TIMESCALEDB_USER_INDEX = true;
+    public int TIMESCALEDB_SPACE_PARTITIONS = 0;
+    public boolean TIMESCALEDB_COMPRESSION = false;
+    public String TIMESCALEDB_COMPRESS_AFTER = "1 day";
 
     public String INFLUXDB_IP = "localhost";
     public int INFLUXDB_PORT = 9999;
@@ -47,6 +80,13 @@ public class Settings {
     public String INFLUXDB_BUCKET = "my-bucket";
     public String INFLUXDB_TOKEN = "my-token";
     public String INFLUXDB_MEASUREMENT = "timeseries_tbl";
+    public String INFLUXDB_WRITE_MODE = "WRITE_API";
+    public int INFLUXDB_BATCH_SIZE = 1000;
+    public int INFLUXDB_FLUSH_INTERVAL_MS = 100;
+    public int INFLUXDB_JITTER_INTERVAL_MS = 0;
+    public int INFLUXDB_RETRY_INTERVAL_MS = 5000;
+    public int INFLUXDB_BUFFER_LIMIT = 100000;
+    public long INFLUXDB_WRITE_TIMEOUT_MS = 30000;
 
     public String TSDB_METRIC = "my.tsdb.test.metric";
     public String TSDB_HBASE_HOST = "127.0.0.1";
@@ -57,10 +97,14 @@ public class Settings {
     public String TSDB_HBASE_UID_TABLE = "tsdb-uid";
     public String TSDB_HBASE_TREE_TABLE = "tsdb-tree";
     public String TSDB_HBASE_META_TABLE = "tsdb-meta";
+    public String TSDB_WRITE_MODE = "TAG";
+    public int TSDB_FLUSH_INTERVAL_MS = 1000;
 
     public String KAIROS_URL = "127.0.0.1";
     public String KAIROS_PORT = "8080";
     public String KAIROS_METRIC = "test";
+    public String KAIROS_VALUE_TYPE = "JSON_STRING";
+    public String KAIROS_CUSTOM_TYPE = "user_notify";
 
     public static Settings getInstance() {
         Settings result = instance;
@@ -1,8 +1,11 @@
 package io.dogy.dao;
 
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 public interface IUserNotifyDao {
@@ -16,4 +19,41 @@ public interface IUserNotifyDao {
     List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception;
 
     List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception;
+
+    /**
+     * Keyset pagination: the next {@code pageSize} notifications older than {@code cursor}, newest first, or the newest
+     * ones when {@code cursor} is null. Notifications are ordered by timestamp and then by notify id, and the backend
+     * seeks straight to the cursor, so the cost of a page does not depend on how deep it is.
+     */
+    List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) throws Exception;
+
+    /**
+     * Keyset pagination: the next {@code pageSize} notifications newer than {@code cursor}, oldest first, or the oldest
+     * ones when {@code cursor} is null.
+     */
+    List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) throws Exception;
+
+    /**
+     * Non-blocking {@link #fetchDesc}, failures complete the future exceptionally.
+     */
+    CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime);
+
+    /**
+     * Non-blocking {@link #fetchAsc}, failures complete the future exceptionally.
+     */
+    CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime);
+
+    /**
+     * Physically remove expired data, such as a major compaction, and return once it is done. Backends which expire
+     * data eagerly have nothing to do.
+     */
+    default void compact() throws Exception {
+    }
+
+    /**
+     * Client-side counters of this DAO, such as the depth of its write queue, logged after every benchmark phase.
+     */
+    default Map<String, Object> getStats() {
+        return Collections.emptyMap();
+    }
 }
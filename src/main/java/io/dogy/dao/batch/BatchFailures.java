@@ -0,0 +1,39 @@
+package io.dogy.dao.batch;
+
+/**
+ * Per-record failures of one batch, for backends which report partial failures. Owned by a single writer worker and
+ * reused for every batch it flushes.
+ */
+public class BatchFailures {
+
+    private final Throwable[] causes;
+    private int count;
+
+    BatchFailures(int capacity) {
+        this.causes = new Throwable[capacity];
+    }
+
+    /**
+     * Mark the record at {@code index} of the batch as failed, the other records still succeed.
+     */
+    public void fail(int index, Throwable cause) {
+        if (causes[index] == null) {
+            count++;
+        }
+        causes[index] = cause;
+    }
+
+    Throwable get(int index) {
+        return count == 0 ? null : causes[index];
+    }
+
+    void clear(int size) {
+        if (count != 0) {
+            for (int i = 0; i < size; i++) {
+                causes[i] = null;
+            }
+            count = 0;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package io.dogy.dao.batch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dogy.config.Settings;
+import io.dogy.model.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Shared asynchronous write pipeline for the batching DAOs.
+ * <p>
+ * Records are queued into a bounded queue of {@code BATCH_QUEUE_CAPACITY} records; once the backend falls behind,
+ * {@code BATCH_OVERFLOW_POLICY} decides whether producers block, are rejected or push out the oldest record. Each of the
+ * {@code EVENT_LOOP_COUNT} worker threads takes the first waiting record, keeps collecting until the batch is full
+ * or {@code BATCH_LINGER_MS} has passed, and hands the batch to the {@link IBatchHandler}. The batch size adapts to
+ * the observed flush latency: it grows while flushes of full batches stay under {@code BATCH_TARGET_FLUSH_MS} and
+ * shrinks when they exceed it.
+ * <p>
+ * {@link #close()} stops the workers once their current batch is flushed and fails the records still queued.
+ */
+public class BatchingWriter<T> implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchingWriter.class);
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    /**
+     * The value of every successfully written record's future, shared so completing a future allocates nothing.
+     */
+    public static final Object SUCCESS = new Object();
+
+    private final String name;
+    private final IBatchHandler<T> handler;
+    private final BlockingQueue<Pair<T, CompletableFuture<Object>>> queue;
+    private final AtomicBoolean isAvailable = new AtomicBoolean(true);
+    private final AtomicInteger batchSize;
+    private final OverflowPolicy overflowPolicy;
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private final Thread shutdownHook = new Thread(() -> isAvailable.set(false));
+    private ExecutorService executorService;
+
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final long targetFlushNanos;
+
+    public BatchingWriter(String name, IBatchHandler<T> handler) {
+        Settings setting = Settings.getInstance();
+
+        this.name = name;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(setting.BATCH_QUEUE_CAPACITY);
+        this.overflowPolicy = OverflowPolicy.valueOf(setting.BATCH_OVERFLOW_POLICY);
+        this.minBatchSize = Math.max(1, setting.BATCH_MIN_SIZE);
+        this.maxBatchSize = Math.max(minBatchSize, setting.BATCH_MAX_SIZE);
+        this.batchSize = new AtomicInteger(Math.min(maxBatchSize, Math.max(minBatchSize, setting.BATCH_INITIAL_SIZE)));
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(setting.BATCH_LINGER_MS);
+        this.targetFlushNanos = TimeUnit.MILLISECONDS.toNanos(setting.BATCH_TARGET_FLUSH_MS);
+    }
+
+    public void start() {
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat(name + "-writer-%d")
+                .setDaemon(true)
+                .build();
+
+        int workerCount = Settings.getInstance().EVENT_LOOP_COUNT;
+        executorService = Executors.newFixedThreadPool(workerCount, threadFactory);
+        for (int i = 0; i < workerCount; i++) {
+            executorService.submit(this::runWorker);
+        }
+        executorService.shutdown();
+
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stop the workers and wait for the batches they are flushing. Workers which don't finish in time are
+     * interrupted, and every record left in the queue is failed, so each future is still completed exactly once.
+     */
+    @Override
+    public void close() {
+        isAvailable.set(false);
+        if (executorService != null) {
+            try {
+                if (!executorService.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    logger.warn("{} writer workers did not stop within {}s, interrupting them", name, CLOSE_TIMEOUT_SECONDS);
+                    executorService.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executorService.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM is already shutting down
+            }
+        }
+
+        Pair<T, CompletableFuture<Object>> pair;
+        while ((pair = queue.poll()) != null) {
+            pair._2.completeExceptionally(new RejectedExecutionException(name + " writer is closed"));
+        }
+    }
+
+    /**
+     * Queue a record. When the queue is full the configured {@link OverflowPolicy} applies.
+     *
+     * @return a future completed once the batch containing the record has been written
+     */
+    public CompletableFuture<Object> submit(T record) throws InterruptedException {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        Pair<T, CompletableFuture<Object>> pair = new Pair<>(record, future);
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                queue.put(pair);
+                break;
+            case FAIL_FAST:
+                if (!queue.offer(pair)) {
+                    rejectedCount.increment();
+                    future.completeExceptionally(new RejectedExecutionException(name + " write queue is full"));
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(pair)) {
+                    Pair<T, CompletableFuture<Object>> oldest = queue.poll();
+                    if (oldest != null) {
+                        droppedCount.increment();
+                        oldest._2.completeExceptionally(new RejectedExecutionException(name + " write queue overflowed"));
+                    }
+                }
+                break;
+        }
+        return future;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getBatchSize() {
+        return batchSize.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.sum();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Current queue depth, batch size and overflow counters, keyed for {@link io.dogy.dao.IUserNotifyDao#getStats()}.
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put(name + ".queue_depth", getQueueDepth());
+        stats.put(name + ".batch_size", getBatchSize());
+        stats.put(name + ".rejected", getRejectedCount());
+        stats.put(name + ".dropped", getDroppedCount());
+        return stats;
+    }
+
+    private void runWorker() {
+        List<Pair<T, CompletableFuture<Object>>> batch = new ArrayList<>(maxBatchSize);
+        List<T> records = new ArrayList<>(maxBatchSize);
+        BatchFailures failures = new BatchFailures(maxBatchSize);
+
+        while (isAvailable.get()) {
+            try {
+                Pair<T, CompletableFuture<Object>> first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int limit = batchSize.get();
+                collect(batch, limit);
+
+                for (Pair<T, CompletableFuture<Object>> pair : batch) {
+                    records.add(pair._1);
+                }
+                flush(batch, records, failures, limit);
+            } catch (InterruptedException e) {
+                for (Pair<T, CompletableFuture<Object>> pair : batch) {
+                    pair._2.completeExceptionally(e);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                records.clear();
+            }
+        }
+    }
+
+    /**
+     * Fill the batch up to {@code limit} records, waiting at most the linger time for more records to arrive.
+     */
+    private void collect(List<Pair<T, CompletableFuture<Object>>> batch, int limit) throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < limit) {
+            queue.drainTo(batch, limit - batch.size());
+            if (batch.size() >= limit) {
+                return;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Pair<T, CompletableFuture<Object>> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    /**
+     * Flush the batch and complete every future exactly once: all of them exceptionally when the handler throws,
+     * otherwise with {@link #SUCCESS} or the failure the handler reported for that record.
+     */
+    private void flush(List<Pair<T, CompletableFuture<Object>>> batch, List<T> records, BatchFailures failures, int limit) {
+        long startTime = System.nanoTime();
+        try {
+            handler.flush(records, failures);
+
+            for (int i = 0; i < batch.size(); i++) {
+                Throwable cause = failures.get(i);
+                if (cause == null) {
+                    batch.get(i)._2.complete(SUCCESS);
+                } else {
+                    batch.get(i)._2.completeExceptionally(cause);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Exception when flush " + name + " batch: ", e);
+
+            for (Pair<T, CompletableFuture<Object>> pair : batch) {
+                pair._2.completeExceptionally(e);
+            }
+        } finally {
+            failures.clear(batch.size());
+        }
+        adapt(System.nanoTime() - startTime, batch.size() >= limit);
+    }
+
+    /**
+     * Additive increase while full batches flush fast enough, multiplicative decrease once they become too slow.
+     */
+    private void adapt(long flushNanos, boolean wasFull) {
+        if (flushNanos > targetFlushNanos) {
+            batchSize.updateAndGet(size -> Math.max(minBatchSize, size / 2));
+        } else if (wasFull) {
+            batchSize.updateAndGet(size -> Math.min(maxBatchSize, size + minBatchSize));
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package io.dogy.dao.batch;
+
+import java.util.List;
+
+public interface IBatchHandler<T> {
+
+    /**
+     * Write one batch to the backend. Throwing fails every record of the batch; a backend which reports partial
+     * failures marks the failed records in {@code failures} instead and the rest of the batch succeeds.
+     */
+    void flush(List<T> batch, BatchFailures failures) throws Exception;
+
+}
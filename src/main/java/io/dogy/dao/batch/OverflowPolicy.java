@@ -0,0 +1,23 @@
+package io.dogy.dao.batch;
+
+/**
+ * What {@link BatchingWriter#submit} does when the write queue is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Wait until the workers make room, so producers are slowed down to the backend's pace.
+     */
+    BLOCK,
+
+    /**
+     * Return a future already failed with a {@link java.util.concurrent.RejectedExecutionException}.
+     */
+    FAIL_FAST,
+
+    /**
+     * Fail the oldest queued record to make room for the new one.
+     */
+    DROP_OLDEST
+
+}
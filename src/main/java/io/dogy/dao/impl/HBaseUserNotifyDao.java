@@ -2,24 +2,33 @@ package io.dogy.dao.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ServiceException;
 import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
+import io.dogy.dao.batch.BatchFailures;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.dao.impl.hbase.BinaryRowKeyCodec;
+import io.dogy.dao.impl.hbase.IRowKeyCodec;
+import io.dogy.dao.impl.hbase.StringRowKeyCodec;
+import io.dogy.model.Cursor;
 import io.dogy.model.Pair;
 import io.dogy.model.UserNotify;
 import io.dogy.utility.ByteUtil;
+import io.dogy.utility.ULID;
 import io.dogy.utility.Util;
 import io.dogy.validator.IValidator;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
-import org.apache.hadoop.hbase.filter.Filter;
-import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.client.metrics.ScanMetrics;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.protobuf.generated.AdminProtos;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,27 +36,42 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class HBaseUserNotifyDao implements IUserNotifyDao {
 
     private static final Logger logger = LoggerFactory.getLogger(HBaseUserNotifyDao.class);
+    private static final int PAGE_SIZE = Settings.getInstance().PAGE_SIZE;
     private final Connection writeConnection;
     private final Connection readConnection;
-    private final BlockingQueue<Pair<UserNotify, CompletableFuture<Object>>> queue = new LinkedBlockingQueue<>();
+    private final WriteMode writeMode = WriteMode.valueOf(Settings.getInstance().HBASE_WRITE_MODE);
+    private final BatchingWriter<UserNotify> writer = new BatchingWriter<>("hbase", this::writeBatch);
+    private BufferedMutator mutator;
+    private final Queue<Pair<Put, CompletableFuture<Object>>> pendingPuts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Map<Row, Throwable> failedRows = Collections.synchronizedMap(new IdentityHashMap<>());
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder readRpcCount = new LongAdder();
+    /**
+     * The client only offers blocking reads, the async fetches run on this dedicated pool.
+     */
+    private final ExecutorService readPool = Util.createDaemonPool("hbase-reader-%d", Settings.getInstance().READ_POOL_SIZE);
 
     private final static String TABLE_NAME = Settings.getInstance().HBASE_TABLE;
-    private final static byte[] FAMILY = Bytes.toBytes("cf");
+    final static byte[] FAMILY = Bytes.toBytes("cf");
+    final static IRowKeyCodec KEY_CODEC = createKeyCodec(Settings.getInstance());
 
     private final static byte[] ID_COLUMN = Bytes.toBytes("notify_id");
     private final static byte[] USER_COLUMN = Bytes.toBytes("user_id");
     private final static byte[] TIMESTAMP_COLUMN = Bytes.toBytes("timestamp");
     private final static byte[] DATA_COLUMN = Bytes.toBytes("data");
+    private final static byte[] VALUE_COLUMN = Bytes.toBytes("v");
+    private final static int ULID_LENGTH = 16;
+    private final static CellEncoding CELL_ENCODING = CellEncoding.valueOf(Settings.getInstance().HBASE_CELL_ENCODING);
 
     @Autowired
     private IValidator<UserNotify> validator;
@@ -61,43 +85,76 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
     void init() throws IOException {
         createDB();
 
-        AtomicBoolean isAvailable = new AtomicBoolean(true);
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> isAvailable.set(false)));
-
-        for (int i = 0; i < Settings.getInstance().EVENT_LOOP_COUNT; i++) {
-            CompletableFuture.runAsync(() -> {
-                while (isAvailable.get()) {
-                    List<Pair<UserNotify, CompletableFuture<Object>>> batch = new ArrayList<>();
-
-                    try {
-                        final int BATCH_SIZE = 100;
-                        int n = queue.drainTo(batch, BATCH_SIZE);
-                        if (n == 0) {
-                            Thread.sleep(50);
-                            continue;
-                        }
-
-                        List<Put> puts = new ArrayList<>();
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            puts.add(map2Put(pair._1));
-                        }
-
-                        try (Table table = writeConnection.getTable(TableName.valueOf(TABLE_NAME))) {
-                            table.put(puts);
-                        }
-                    } catch (Exception e) {
-                        logger.error("Exception when insert hbase record: ", e);
-
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.completeExceptionally(e);
-                        }
-                    } finally {
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.complete(new Object());
-                        }
+        if (writeMode == WriteMode.MUTATOR) {
+            startMutator();
+        } else {
+            writer.start();
+        }
+    }
+
+    /**
+     * The mutator buffers puts client-side and sends them to the region servers in the background. Every put is
+     * queued as pending after it has been handed to the mutator, so a periodic flush completes exactly the puts it
+     * covers: those the exception listener reported failed exceptionally, the others successfully.
+     */
+    private void startMutator() throws IOException {
+        Settings setting = Settings.getInstance();
+        BufferedMutatorParams params = new BufferedMutatorParams(TableName.valueOf(TABLE_NAME))
+                .writeBufferSize(setting.HBASE_WRITE_BUFFER_SIZE)
+                .listener((e, bufferedMutator) -> {
+                    for (int i = 0; i < e.getNumExceptions(); i++) {
+                        failedRows.put(e.getRow(i), e.getCause(i));
                     }
-                }
-            });
+                });
+        mutator = writeConnection.getBufferedMutator(params);
+
+        ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("hbase-flusher-%d")
+                .setDaemon(true)
+                .build());
+        flusher.scheduleWithFixedDelay(this::flushMutator, setting.HBASE_FLUSH_INTERVAL_MS,
+                setting.HBASE_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            flusher.shutdown();
+            flushMutator();
+            try {
+                mutator.close();
+            } catch (IOException e) {
+                logger.error("Exception when close hbase mutator: ", e);
+            }
+        }));
+    }
+
+    private synchronized void flushMutator() {
+        List<Pair<Put, CompletableFuture<Object>>> flushed = new ArrayList<>();
+        Pair<Put, CompletableFuture<Object>> pair;
+        while ((pair = pendingPuts.poll()) != null) {
+            flushed.add(pair);
+        }
+        if (flushed.isEmpty()) {
+            return;
+        }
+        pendingCount.addAndGet(-flushed.size());
+
+        try {
+            mutator.flush();
+        } catch (Exception e) {
+            logger.error("Exception when flush hbase mutator: ", e);
+            for (Pair<Put, CompletableFuture<Object>> p : flushed) {
+                failedRows.remove(p._1);
+                p._2.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (Pair<Put, CompletableFuture<Object>> p : flushed) {
+            Throwable cause = failedRows.remove(p._1);
+            if (cause == null) {
+                p._2.complete(BatchingWriter.SUCCESS);
+            } else {
+                p._2.completeExceptionally(cause);
+            }
         }
     }
 
@@ -112,13 +169,20 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
                 HColumnDescriptor family = new HColumnDescriptor(FAMILY)
                         .setTimeToLive(Settings.getInstance().TTL_IN_SECONDS);
                 if (Settings.getInstance().HBASE_COMPRESSION) {
-                    family.setCompressionType(Compression.Algorithm.SNAPPY);
+                    family.setCompressionType(Compression.Algorithm.valueOf(Settings.getInstance().HBASE_COMPRESSION_ALGORITHM));
                 }
+                family.setDataBlockEncoding(DataBlockEncoding.valueOf(Settings.getInstance().HBASE_DATA_BLOCK_ENCODING));
 
                 //adding column family to HTable
                 table.addFamily(family);
 
-                admin.createTable(table);
+                // one region per salt bucket, so writes spread over the region servers from the start
+                byte[][] splitKeys = KEY_CODEC.splitKeys();
+                if (splitKeys.length > 0) {
+                    admin.createTable(table, splitKeys);
+                } else {
+                    admin.createTable(table);
+                }
             }
         }
     }
@@ -134,6 +198,23 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
         }
     }
 
+    /**
+     * Run a major compaction, which drops the expired cells, and wait until the region servers report it finished.
+     */
+    @Override
+    public void compact() throws Exception {
+        try (Admin admin = writeConnection.getAdmin()) {
+            TableName tableName = TableName.valueOf(TABLE_NAME);
+            admin.flush(tableName);
+            admin.majorCompact(tableName);
+            // the request is queued, give the region servers a moment to pick it up
+            Thread.sleep(1000);
+            while (admin.getCompactionState(tableName) != AdminProtos.GetRegionInfoResponse.CompactionState.NONE) {
+                Thread.sleep(1000);
+            }
+        }
+    }
+
     @Override
     public void insert(UserNotify userNotify) throws Exception {
         if (!validator.validate(userNotify)) {
@@ -149,73 +230,217 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
         if (!validator.validate(userNotify)) {
             throw new RuntimeException("Invalid data");
         }
+        if (writeMode == WriteMode.BATCH) {
+            return writer.submit(userNotify);
+        }
+
+        Put put = map2Put(userNotify);
         CompletableFuture<Object> future = new CompletableFuture<>();
-        queue.add(new Pair<>(userNotify, future));
+        // blocks only when the write buffer is full and has to be sent first
+        mutator.mutate(put);
+        pendingPuts.add(new Pair<>(put, future));
+        pendingCount.incrementAndGet();
         return future;
     }
 
     @Override
-    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
-        byte[] prefix = Bytes.toBytes(serializeKey(userID) + ":");
-        Filter filter = new PrefixFilter(prefix);
-
-        Scan scan = new Scan();
-        scan.setReversed(true);
-        scan.setFilter(filter);
-        scan.setCaching(10);
-        scan.setLimit(20);
-        if (fromTime != null) {
-            scan.withStartRow(ArrayUtils.addAll(prefix, Bytes.toBytes(fromTime)), false);
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        if (writeMode == WriteMode.BATCH) {
+            stats.putAll(writer.getStats());
         } else {
-            scan.withStartRow(ArrayUtils.addAll(prefix, Bytes.toBytes(System.currentTimeMillis())));
+            stats.put("hbase.pending_puts", pendingCount.get());
+            stats.put("hbase.write_buffer_size", mutator.getWriteBufferSize());
         }
-        scan.withStopRow(ArrayUtils.addAll(prefix, Bytes.toBytes(0)));
 
-        try (Table table = readConnection.getTable(TableName.valueOf(TABLE_NAME))) {
-            List<UserNotify> results = new ArrayList<>();
+        long reads = readCount.sum();
+        long rpcCalls = readRpcCount.sum();
+        stats.put("hbase.reads", reads);
+        stats.put("hbase.read_rpc_calls", rpcCalls);
+        stats.put("hbase.rpc_calls_per_read", reads == 0 ? 0 : String.format("%.2f", rpcCalls / (double) reads));
+        return stats;
+    }
 
-            try (ResultScanner scanner = table.getScanner(scan)) {
-                for (Result r = scanner.next(); r != null; r = scanner.next()) {
-                    if (r.isEmpty()) {
-                        continue;
-                    }
-                    results.add(map2UserNotify(r));
+    private void writeBatch(List<UserNotify> batch, BatchFailures failures) throws IOException {
+        List<Put> puts = new ArrayList<>(batch.size());
+        for (UserNotify userNotify : batch) {
+            puts.add(map2Put(userNotify));
+        }
+
+        try (Table table = writeConnection.getTable(TableName.valueOf(TABLE_NAME))) {
+            table.put(puts);
+        } catch (RetriesExhaustedWithDetailsException e) {
+            // only the listed rows failed, the rest of the batch has been written
+            Map<Row, Integer> indexes = new IdentityHashMap<>(puts.size());
+            for (int i = 0; i < puts.size(); i++) {
+                indexes.put(puts.get(i), i);
+            }
+            for (int i = 0; i < e.getNumExceptions(); i++) {
+                Integer index = indexes.get(e.getRow(i));
+                if (index == null) {
+                    throw e;
                 }
+                failures.fail(index, e.getCause(i));
             }
-            return results;
         }
     }
 
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        return Util.supplyAsync(() -> fetchDesc(userID, fromTime), readPool);
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        return Util.supplyAsync(() -> fetchAsc(userID, fromTime), readPool);
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
+        // rows with expiryTime <= timestamp < upper, newest first
+        long upper = fromTime == null ? Long.MAX_VALUE : fromTime;
+        long expiryTime = expiryTime();
+
+        Scan scan = createPageScan(PAGE_SIZE);
+        if (KEY_CODEC.isTimestampReversed()) {
+            scan.withStartRow(KEY_CODEC.firstKey(userID, upper - 1), true);
+            scan.withStopRow(KEY_CODEC.firstKey(userID, expiryTime - 1), false);
+        } else {
+            scan.setReversed(true);
+            scan.withStartRow(KEY_CODEC.firstKey(userID, upper), false);
+            scan.withStopRow(KEY_CODEC.firstKey(userID, expiryTime), true);
+        }
+        return scan(userID, scan);
+    }
+
     @Override
     public List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception {
-        byte[] prefix = Bytes.toBytes(serializeKey(userID) + ":");
-        Filter filter = new PrefixFilter(prefix);
+        // rows with timestamp >= lower, oldest first
+        long lower = expiryTime();
+        if (fromTime != null && fromTime >= lower) {
+            lower = fromTime + 1;
+        }
+
+        Scan scan = createPageScan(PAGE_SIZE);
+        if (KEY_CODEC.isTimestampReversed()) {
+            scan.setReversed(true);
+            scan.withStartRow(KEY_CODEC.firstKey(userID, lower - 1), false);
+            scan.withStopRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE), true);
+        } else {
+            scan.withStartRow(KEY_CODEC.firstKey(userID, lower), true);
+            scan.withStopRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE), false);
+        }
+        return scan(userID, scan);
+    }
+
+    /**
+     * The cursor's row key is an exact seek position: binary keys end with the notify id, and string keys hold a single
+     * notification per millisecond. Both scans start right after it.
+     */
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) throws Exception {
+        long expiryTime = expiryTime();
+
+        Scan scan = createPageScan(pageSize);
+        if (KEY_CODEC.isTimestampReversed()) {
+            if (cursor == null) {
+                scan.withStartRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE - 1), true);
+            } else {
+                scan.withStartRow(cursorKey(userID, cursor), false);
+            }
+            scan.withStopRow(KEY_CODEC.firstKey(userID, expiryTime - 1), false);
+        } else {
+            scan.setReversed(true);
+            if (cursor == null) {
+                scan.withStartRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE), false);
+            } else {
+                scan.withStartRow(cursorKey(userID, cursor), false);
+            }
+            scan.withStopRow(KEY_CODEC.firstKey(userID, expiryTime), true);
+        }
+        return scan(userID, scan);
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) throws Exception {
+        long lower = expiryTime();
+        boolean seek = cursor != null && cursor.getTimestamp() >= lower;
+
+        Scan scan = createPageScan(pageSize);
+        if (KEY_CODEC.isTimestampReversed()) {
+            scan.setReversed(true);
+            scan.withStartRow(seek ? cursorKey(userID, cursor) : KEY_CODEC.firstKey(userID, lower - 1), false);
+            scan.withStopRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE), true);
+        } else {
+            if (seek) {
+                scan.withStartRow(cursorKey(userID, cursor), false);
+            } else {
+                scan.withStartRow(KEY_CODEC.firstKey(userID, lower), true);
+            }
+            scan.withStopRow(KEY_CODEC.firstKey(userID, Long.MAX_VALUE), false);
+        }
+        return scan(userID, scan);
+    }
 
+    private static byte[] cursorKey(String userID, Cursor cursor) {
+        return KEY_CODEC.encode(userID, cursor.getTimestamp(), cursor.getNotifyID());
+    }
+
+    /**
+     * A page is fetched in a single RPC: the start and stop rows bound the scan to the user's timeline, so no filter
+     * is needed, caching equals the page size and the small scan reads it with positional reads.
+     */
+    private static Scan createPageScan(int pageSize) {
         Scan scan = new Scan();
-        scan.setFilter(filter);
-        scan.setCaching(10);
-        scan.setLimit(20);
-        if (fromTime != null) {
-            scan.withStartRow(ArrayUtils.addAll(prefix, Bytes.toBytes(fromTime)), false);
+        if (CELL_ENCODING == CellEncoding.COMPACT) {
+            scan.addColumn(FAMILY, VALUE_COLUMN);
         } else {
-            scan.withStartRow(ArrayUtils.addAll(prefix, Bytes.toBytes(System.currentTimeMillis() - Settings.getInstance().TTL_IN_SECONDS * 1000)));
+            scan.addColumn(FAMILY, ID_COLUMN);
+            scan.addColumn(FAMILY, USER_COLUMN);
+            scan.addColumn(FAMILY, TIMESTAMP_COLUMN);
+            scan.addColumn(FAMILY, DATA_COLUMN);
+        }
+        scan.setCaching(pageSize);
+        scan.setLimit(pageSize);
+        scan.setSmall(true);
+        scan.setScanMetricsEnabled(true);
+        if (Settings.getInstance().HBASE_CELL_TIMESTAMP) {
+            // cells are versioned by notification time, so store files holding only expired data are skipped
+            try {
+                scan.setTimeRange(expiryTime(), Long.MAX_VALUE);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
         }
+        return scan;
+    }
 
+    private List<UserNotify> scan(String userID, Scan scan) throws IOException {
         try (Table table = readConnection.getTable(TableName.valueOf(TABLE_NAME))) {
-            List<UserNotify> results = new ArrayList<>();
+            List<UserNotify> results = new ArrayList<>(PAGE_SIZE);
 
             try (ResultScanner scanner = table.getScanner(scan)) {
                 for (Result r = scanner.next(); r != null; r = scanner.next()) {
                     if (r.isEmpty()) {
                         continue;
                     }
-                    results.add(map2UserNotify(r));
+                    results.add(map2UserNotify(userID, r));
                 }
             }
+
+            ScanMetrics scanMetrics = scan.getScanMetrics();
+            readCount.increment();
+            if (scanMetrics != null) {
+                readRpcCount.add(scanMetrics.countOfRPCcalls.get());
+            }
             return results;
         }
     }
 
+    private static long expiryTime() {
+        return System.currentTimeMillis() - Settings.getInstance().TTL_IN_SECONDS * 1000L;
+    }
+
     private static Connection createConnection() throws IOException, ServiceException {
         Settings setting = Settings.getInstance();
         Configuration config = HBaseConfiguration.create();
@@ -229,20 +454,52 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
         return ConnectionFactory.createConnection(config);
     }
 
-    private static Put map2Put(UserNotify userNotify) throws JsonProcessingException {
-        byte[] prefix = Bytes.toBytes(serializeKey(userNotify.getUserID()) + ":");
-        byte[] row = ArrayUtils.addAll(prefix, Bytes.toBytes(userNotify.getTimestamp()));
-        Put put = new Put(row);
+    static Put map2Put(UserNotify userNotify) throws JsonProcessingException {
+        Settings setting = Settings.getInstance();
+        Put put = new Put(KEY_CODEC.encode(userNotify));
+        // the family TTL and the per-mutation TTL both count from the cell timestamp
+        long cellTimestamp = setting.HBASE_CELL_TIMESTAMP ? userNotify.getTimestamp() : HConstants.LATEST_TIMESTAMP;
+        if (setting.HBASE_ROW_TTL_SECONDS > 0) {
+            put.setTTL(setting.HBASE_ROW_TTL_SECONDS * 1000L);
+        }
+
+        if (CELL_ENCODING == CellEncoding.COMPACT) {
+            byte[] data = Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData());
+            byte[] value = ByteBuffer.allocate(ULID_LENGTH + data.length)
+                    .put(ULID.parseULID(userNotify.getNotifyID()).toBytes())
+                    .put(data)
+                    .array();
+            put.addColumn(FAMILY, VALUE_COLUMN, cellTimestamp, value);
+            return put;
+        }
 
-        put.addColumn(FAMILY, ID_COLUMN, Bytes.toBytes(userNotify.getNotifyID()));
-        put.addColumn(FAMILY, USER_COLUMN, Bytes.toBytes(userNotify.getUserID()));
-        put.addColumn(FAMILY, TIMESTAMP_COLUMN, Bytes.toBytes(userNotify.getTimestamp()));
-        put.addColumn(FAMILY, DATA_COLUMN, Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData()));
+        put.addColumn(FAMILY, ID_COLUMN, cellTimestamp, Bytes.toBytes(userNotify.getNotifyID()));
+        put.addColumn(FAMILY, USER_COLUMN, cellTimestamp, Bytes.toBytes(userNotify.getUserID()));
+        put.addColumn(FAMILY, TIMESTAMP_COLUMN, cellTimestamp, Bytes.toBytes(userNotify.getTimestamp()));
+        put.addColumn(FAMILY, DATA_COLUMN, cellTimestamp, Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData()));
 
         return put;
     }
 
-    private static UserNotify map2UserNotify(Result r) throws IOException {
+    /**
+     * The user id is the one the page was read for and the timestamp is taken from the row key, so a compact cell
+     * only has to hold the notify id and the data.
+     */
+    static UserNotify map2UserNotify(String userID, Result r) throws IOException {
+        if (CELL_ENCODING == CellEncoding.COLUMNS) {
+            return map2UserNotify(r);
+        }
+
+        byte[] value = r.getValue(FAMILY, VALUE_COLUMN);
+        UserNotify userNotify = new UserNotify();
+        userNotify.setNotifyID(ULID.fromBytes(Arrays.copyOf(value, ULID_LENGTH)).toString());
+        userNotify.setUserID(userID);
+        userNotify.setTimestamp(KEY_CODEC.decodeTimestamp(r.getRow()));
+        userNotify.setData(Util.OBJECT_MAPPER.readValue(value, ULID_LENGTH, value.length - ULID_LENGTH, ObjectNode.class));
+        return userNotify;
+    }
+
+    static UserNotify map2UserNotify(Result r) throws IOException {
         UserNotify userNotify = new UserNotify();
         userNotify.setNotifyID(ByteUtil.toString(r.getValue(FAMILY, ID_COLUMN)));
         userNotify.setUserID(ByteUtil.toString(r.getValue(FAMILY, USER_COLUMN)));
@@ -251,11 +508,39 @@ public class HBaseUserNotifyDao implements IUserNotifyDao {
         return userNotify;
     }
 
-    private static String serializeKey(String originalKey) {
-        int mod = Math.abs(originalKey.hashCode() % Settings.getInstance().HBASE_SALT);
-        int length = (int) Math.ceil(Math.log10(Settings.getInstance().HBASE_SALT));
-        String prefix = String.format("%0" + length + "d", mod);
-        return prefix + "-" + originalKey;
+    static IRowKeyCodec createKeyCodec(Settings setting) {
+        switch (setting.HBASE_KEY_CODEC) {
+            case "STRING":
+                return new StringRowKeyCodec(setting.HBASE_SALT);
+            case "BINARY":
+                return new BinaryRowKeyCodec(setting.HBASE_SALT, false);
+            case "BINARY_REVERSED":
+                return new BinaryRowKeyCodec(setting.HBASE_SALT, true);
+            default:
+                throw new IllegalStateException("Unexpected key codec: " + setting.HBASE_KEY_CODEC);
+        }
+    }
+
+    private enum WriteMode {
+        /**
+         * Batches of the shared {@link BatchingWriter}, each written with a blocking {@code Table.put}.
+         */
+        BATCH,
+        /**
+         * One {@link BufferedMutator} flushed every {@code HBASE_FLUSH_INTERVAL_MS} or whenever its buffer is full.
+         */
+        MUTATOR
+    }
+
+    private enum CellEncoding {
+        /**
+         * One cell per field, each repeating the row key, family and qualifier.
+         */
+        COLUMNS,
+        /**
+         * A single cell holding the 16 byte notify id ULID followed by the serialized data.
+         */
+        COMPACT
     }
 
 }
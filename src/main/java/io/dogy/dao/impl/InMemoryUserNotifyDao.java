@@ -0,0 +1,181 @@
+package io.dogy.dao.impl;
+
+import io.dogy.config.Settings;
+import io.dogy.dao.IUserNotifyDao;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.model.Cursor;
+import io.dogy.model.UserNotify;
+import io.dogy.validator.IValidator;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-process backend without any network round trip. Every user owns a skip list sorted by timestamp, so both
+ * directions are a seek followed by at most one page of iteration. It shows how fast the harness itself can drive a
+ * backend and serves as the reference result for the other implementations.
+ */
+public class InMemoryUserNotifyDao implements IUserNotifyDao {
+
+    private static final int PAGE_SIZE = Settings.getInstance().PAGE_SIZE;
+
+    private final Settings setting = Settings.getInstance();
+    private final ConcurrentMap<String, ConcurrentSkipListMap<Key, UserNotify>> timelines = new ConcurrentHashMap<>();
+
+    @Autowired
+    private IValidator<UserNotify> validator;
+
+    @Override
+    public void flushDB() {
+        timelines.clear();
+    }
+
+    @Override
+    public void insert(UserNotify userNotify) {
+        if (!validator.validate(userNotify)) {
+            throw new RuntimeException("Invalid data");
+        }
+        ConcurrentSkipListMap<Key, UserNotify> timeline = timelines.computeIfAbsent(userNotify.getUserID(),
+                userID -> new ConcurrentSkipListMap<>());
+        timeline.put(new Key(userNotify.getTimestamp(), userNotify.getNotifyID()), userNotify);
+        expire(timeline);
+    }
+
+    @Override
+    public CompletableFuture<Object> insertAsync(UserNotify userNotify) {
+        insert(userNotify);
+        return CompletableFuture.completedFuture(BatchingWriter.SUCCESS);
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Long fromTime) {
+        ConcurrentSkipListMap<Key, UserNotify> timeline = timelines.get(userID);
+        if (timeline == null) {
+            return new ArrayList<>();
+        }
+
+        NavigableMap<Key, UserNotify> range = timeline.descendingMap();
+        if (fromTime != null) {
+            // everything strictly older than fromTime, whatever its notify id
+            range = timeline.headMap(new Key(fromTime, ""), false).descendingMap();
+        }
+        return page(range, expiryTime(), PAGE_SIZE);
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Long fromTime) {
+        ConcurrentSkipListMap<Key, UserNotify> timeline = timelines.get(userID);
+        if (timeline == null) {
+            return new ArrayList<>();
+        }
+
+        long expiryTime = expiryTime();
+        NavigableMap<Key, UserNotify> range;
+        if (fromTime != null && fromTime >= expiryTime) {
+            // everything strictly newer than fromTime: start at the first key of the next millisecond
+            range = timeline.tailMap(new Key(fromTime + 1, ""), true);
+        } else {
+            range = timeline.tailMap(new Key(expiryTime, ""), true);
+        }
+        return page(range, expiryTime, PAGE_SIZE);
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) {
+        ConcurrentSkipListMap<Key, UserNotify> timeline = timelines.get(userID);
+        if (timeline == null) {
+            return new ArrayList<>();
+        }
+
+        NavigableMap<Key, UserNotify> range = timeline.descendingMap();
+        if (cursor != null) {
+            range = timeline.headMap(new Key(cursor.getTimestamp(), cursor.getNotifyID()), false).descendingMap();
+        }
+        return page(range, expiryTime(), pageSize);
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) {
+        ConcurrentSkipListMap<Key, UserNotify> timeline = timelines.get(userID);
+        if (timeline == null) {
+            return new ArrayList<>();
+        }
+
+        long expiryTime = expiryTime();
+        NavigableMap<Key, UserNotify> range;
+        if (cursor != null && cursor.getTimestamp() >= expiryTime) {
+            range = timeline.tailMap(new Key(cursor.getTimestamp(), cursor.getNotifyID()), false);
+        } else {
+            range = timeline.tailMap(new Key(expiryTime, ""), true);
+        }
+        return page(range, expiryTime, pageSize);
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        return CompletableFuture.completedFuture(fetchDesc(userID, fromTime));
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        return CompletableFuture.completedFuture(fetchAsc(userID, fromTime));
+    }
+
+    private List<UserNotify> page(NavigableMap<Key, UserNotify> range, long expiryTime, int pageSize) {
+        List<UserNotify> results = new ArrayList<>(pageSize);
+        for (Map.Entry<Key, UserNotify> entry : range.entrySet()) {
+            UserNotify userNotify = entry.getValue();
+            if (userNotify.getTimestamp() < expiryTime) {
+                // only reachable when walking backwards, everything after this entry is older still
+                break;
+            }
+            results.add(userNotify);
+            if (results.size() == pageSize) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    private void expire(ConcurrentSkipListMap<Key, UserNotify> timeline) {
+        long expiryTime = expiryTime();
+        Map.Entry<Key, UserNotify> first;
+        while ((first = timeline.firstEntry()) != null && first.getKey().timestamp < expiryTime) {
+            timeline.remove(first.getKey(), first.getValue());
+        }
+    }
+
+    private long expiryTime() {
+        return System.currentTimeMillis() - setting.TTL_IN_SECONDS * 1000L;
+    }
+
+    /**
+     * Timeline position of a notification. The notify id breaks ties between notifications of the same millisecond;
+     * an empty notify id sorts before every real one, so {@code new Key(t, "")} is the first key of millisecond t.
+     */
+    private static final class Key implements Comparable<Key> {
+
+        private final long timestamp;
+        private final String notifyID;
+
+        private Key(long timestamp, String notifyID) {
+            this.timestamp = timestamp;
+            this.notifyID = notifyID;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = Long.compare(timestamp, other.timestamp);
+            return result != 0 ? result : notifyID.compareTo(other.notifyID);
+        }
+
+    }
+
+}
@@ -1,43 +1,159 @@
 package io.dogy.dao.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.influxdb.client.InfluxDBClient;
 import com.influxdb.client.InfluxDBClientFactory;
-import com.influxdb.client.QueryApi;
 import com.influxdb.client.WriteApi;
+import com.influxdb.client.WriteOptions;
 import com.influxdb.client.domain.Bucket;
 import com.influxdb.client.domain.BucketRetentionRules;
 import com.influxdb.client.domain.Organization;
 import com.influxdb.client.domain.WritePrecision;
 import com.influxdb.client.write.Point;
+import com.influxdb.client.write.events.BackpressureEvent;
 import com.influxdb.client.write.events.WriteErrorEvent;
 import com.influxdb.client.write.events.WriteSuccessEvent;
 import com.influxdb.query.FluxRecord;
-import com.influxdb.query.FluxTable;
-import com.influxdb.query.dsl.Flux;
-import com.influxdb.query.dsl.functions.restriction.Restrictions;
 import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
+import io.dogy.dao.batch.BatchFailures;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
 import io.dogy.utility.Util;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.util.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class InfluxDbUserNotifyDao implements IUserNotifyDao {
 
+    private static final Logger logger = LoggerFactory.getLogger(InfluxDbUserNotifyDao.class);
+    private static final int PAGE_SIZE = Settings.getInstance().PAGE_SIZE;
+    private static final long SWEEP_INTERVAL_MS = 1000;
     private final Settings setting = Settings.getInstance();
     private final InfluxDBClient influxDBClient;
 
+    private final WriteMode writeMode = WriteMode.valueOf(setting.INFLUXDB_WRITE_MODE);
+
+    /**
+     * WRITE_API mode: one long-lived WriteApi batches points internally, its events are correlated back to the
+     * futures through the line protocol of each point.
+     * <p>
+     * The WriteApi sends its batches one after another, in the order the points were written, and only success events
+     * say which points a batch held. A failed or dropped batch is therefore identified by the next successful one:
+     * every point written before the first point of a successful batch and still pending belonged to a batch which
+     * failed or was dropped by backpressure, and is failed with that cause. Points which never see a later successful
+     * batch are failed by the sweeper after {@code INFLUXDB_WRITE_TIMEOUT_MS}, so nothing stays pending forever.
+     * <p>
+     * Producers never wait for each other: they queue their point in {@code handoff} and whichever of them wins
+     * {@code isDraining} numbers the queued points and hands them to the WriteApi in that order. Identical points
+     * share a line, so each line keeps its pending points oldest first.
+     */
+    private WriteApi writeApi;
+    private final Queue<PendingPoint> handoff = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isDraining = new AtomicBoolean();
+    // only read and written by the thread which holds isDraining
+    private long nextSequence;
+    private final ConcurrentSkipListMap<Long, PendingPoint> pendingBySequence = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, Queue<PendingPoint>> pendingByLine = new ConcurrentHashMap<>();
+    private final LongAdder pendingCount = new LongAdder();
+    private volatile Throwable unresolvedFailure;
+    private final LongAdder failedPoints = new LongAdder();
+    private final LongAdder droppedPoints = new LongAdder();
+    private final LongAdder timedOutPoints = new LongAdder();
+
+    /**
+     * LINE_PROTOCOL mode: our own batching writer posts each batch as one line protocol request.
+     */
+    private final BatchingWriter<UserNotify> writer = new BatchingWriter<>("influxdb", this::writeBatch);
+    private CloseableHttpClient httpClient;
+    private String writeUrl;
+
     public InfluxDbUserNotifyDao() {
         this.influxDBClient = InfluxDBClientFactory.create(
                 String.format("http://%s:%s", setting.INFLUXDB_IP, setting.INFLUXDB_PORT),
                 setting.INFLUXDB_TOKEN.toCharArray(), setting.INFLUXDB_ORG, setting.INFLUXDB_BUCKET
         );
         this.influxDBClient.enableGzip();
-        Runtime.getRuntime().addShutdownHook(new Thread(this.influxDBClient::close));
+    }
+
+    @PostConstruct
+    void init() throws UnsupportedEncodingException {
+        switch (writeMode) {
+            case WRITE_API:
+                WriteOptions writeOptions = WriteOptions.builder()
+                        .batchSize(setting.INFLUXDB_BATCH_SIZE)
+                        .flushInterval(setting.INFLUXDB_FLUSH_INTERVAL_MS)
+                        .jitterInterval(setting.INFLUXDB_JITTER_INTERVAL_MS)
+                        .retryInterval(setting.INFLUXDB_RETRY_INTERVAL_MS)
+                        .bufferLimit(setting.INFLUXDB_BUFFER_LIMIT)
+                        .build();
+                writeApi = influxDBClient.getWriteApi(writeOptions);
+                writeApi.listenEvents(WriteSuccessEvent.class, this::onWriteSuccess);
+                writeApi.listenEvents(WriteErrorEvent.class, this::onWriteError);
+                writeApi.listenEvents(BackpressureEvent.class, this::onBackpressure);
+
+                ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("influxdb-sweeper-%d")
+                        .setDaemon(true)
+                        .build());
+                sweeper.scheduleWithFixedDelay(this::failExpiredPoints, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS,
+                        TimeUnit.MILLISECONDS);
+                break;
+            case LINE_PROTOCOL:
+                writeUrl = String.format("http://%s:%s/api/v2/write?org=%s&bucket=%s&precision=ms",
+                        setting.INFLUXDB_IP, setting.INFLUXDB_PORT,
+                        URLEncoder.encode(setting.INFLUXDB_ORG, "UTF-8"),
+                        URLEncoder.encode(setting.INFLUXDB_BUCKET, "UTF-8"));
+                httpClient = HttpClients.custom()
+                        .setConnectionManager(Util.createHttpConnManager(Settings.getInstance().EVENT_LOOP_COUNT))
+                        .setKeepAliveStrategy(Util.createKeepAliveStrategy())
+                        .setDefaultRequestConfig(Util.createRequestConfig(30))
+                        .build();
+                writer.start();
+                break;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (writeApi != null) {
+                // flushes the points still buffered by the client
+                writeApi.close();
+            }
+            influxDBClient.close();
+        }));
     }
 
     @Override
@@ -68,124 +184,326 @@ public class InfluxDbUserNotifyDao implements IUserNotifyDao {
 
     @Override
     public void insert(UserNotify userNotify) throws Exception {
-        CompletableFuture<String> future = new CompletableFuture<>();
-        try (WriteApi writeApi = influxDBClient.getWriteApi()) {
-            writeApi.listenEvents(WriteSuccessEvent.class, event -> future.complete(event.getLineProtocol()));
-            writeApi.listenEvents(WriteErrorEvent.class, event -> future.completeExceptionally(event.getThrowable()));
-
-            Point point = Point.measurement(setting.INFLUXDB_MEASUREMENT)
-                    .addTag("user_id", userNotify.getUserID())
-                    .addTag("notify_id", userNotify.getNotifyID())
-                    .addField("data", Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData()))
-                    .time(userNotify.getTimestamp(), WritePrecision.MS);
-
-            writeApi.writePoint(point);
-        }
-        future.get();
+        // the sweeper fails a pending point after the write timeout, the extra second covers its interval
+        insertAsync(userNotify).get(setting.INFLUXDB_WRITE_TIMEOUT_MS + SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public CompletableFuture<Object> insertAsync(UserNotify userNotify) throws Exception {
-        CompletableFuture<Object> future = new CompletableFuture<>();
-        try (WriteApi writeApi = influxDBClient.getWriteApi()) {
-            writeApi.listenEvents(WriteSuccessEvent.class, event -> future.complete(event.getLineProtocol()));
-            writeApi.listenEvents(WriteErrorEvent.class, event -> future.completeExceptionally(event.getThrowable()));
+        if (writeMode == WriteMode.LINE_PROTOCOL) {
+            return writer.submit(userNotify);
+        }
 
-            Point point = Point.measurement(setting.INFLUXDB_MEASUREMENT)
-                    .addTag("user_id", userNotify.getUserID())
-                    .addTag("notify_id", userNotify.getNotifyID())
-                    .addField("data", Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData()))
-                    .time(userNotify.getTimestamp(), WritePrecision.MS);
+        Point point = map2Point(userNotify);
+        PendingPoint pending = new PendingPoint(point, point.toLineProtocol());
+        handoff.add(pending);
+        drainHandoff();
+        return pending.future;
+    }
 
-            writeApi.writePoint(point);
+    /**
+     * Sequence numbers follow the order in which the WriteApi receives the points. A producer which finds another one
+     * draining leaves its point to it, the drainer checks the queue again after releasing the flag.
+     */
+    private void drainHandoff() {
+        while (!handoff.isEmpty() && isDraining.compareAndSet(false, true)) {
+            try {
+                List<Point> points = new ArrayList<>();
+                PendingPoint pending;
+                while ((pending = handoff.poll()) != null) {
+                    pending.sequence = nextSequence++;
+                    PendingPoint registered = pending;
+                    pendingByLine.compute(registered.line, (line, queue) -> {
+                        Queue<PendingPoint> result = queue == null ? new ArrayDeque<>(1) : queue;
+                        result.add(registered);
+                        return result;
+                    });
+                    pendingBySequence.put(pending.sequence, pending);
+                    pendingCount.increment();
+                    points.add(pending.point);
+                    pending.point = null;
+                }
+                writeApi.writePoints(points);
+            } finally {
+                isDraining.set(false);
+            }
         }
-        return future;
     }
 
     @Override
-    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
-        QueryApi queryApi = influxDBClient.getQueryApi();
-
-        if (fromTime == null) {
-            fromTime = System.currentTimeMillis();
-        }
-        Flux flux = Flux.from(setting.INFLUXDB_BUCKET)
-                .range(Instant.now().minusSeconds(setting.TTL_IN_SECONDS), Instant.ofEpochMilli(fromTime))
-                .filter(Restrictions.and(
-                        Restrictions.measurement().equal(setting.INFLUXDB_MEASUREMENT),
-                        Restrictions.tag("user_id").equal(userID)
-                ));
-
-        List<UserNotify> results = new ArrayList<>();
-        Map<String, UserNotify> mapResult = new HashMap<>();
-
-        // Query data
-        List<FluxTable> tables = queryApi.query(flux.toString());
-        for (FluxTable fluxTable : tables) {
-            List<FluxRecord> records = fluxTable.getRecords();
-            for (FluxRecord fluxRecord : records) {
-                String notifyId = fluxRecord.getValueByKey("notify_id").toString();
-
-                UserNotify userNotify = mapResult.get(notifyId);
-                if (userNotify == null) {
-                    userNotify = new UserNotify();
-                    userNotify.setNotifyID(notifyId);
-                    userNotify.setUserID(userID);
-                    userNotify.setTimestamp(fluxRecord.getTime().toEpochMilli());
-
-                    mapResult.put(notifyId, userNotify);
-                    results.add(userNotify);
-                }
-                if (Objects.equals(fluxRecord.getField(), "data")) {
-                    userNotify.setData(Util.OBJECT_MAPPER.readValue(fluxRecord.getValue().toString(), ObjectNode.class));
+    public Map<String, Object> getStats() {
+        if (writeMode == WriteMode.LINE_PROTOCOL) {
+            return writer.getStats();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("influxdb.pending_points", pendingCount.sum());
+        stats.put("influxdb.failed_points", failedPoints.sum());
+        stats.put("influxdb.dropped_points", droppedPoints.sum());
+        stats.put("influxdb.timed_out_points", timedOutPoints.sum());
+        return stats;
+    }
+
+    /**
+     * The event carries the line protocol of the whole batch, one point per line. Pending points written before this
+     * batch were in batches which failed or were dropped since the previous successful one.
+     */
+    private synchronized void onWriteSuccess(WriteSuccessEvent event) {
+        long firstSequence = Long.MAX_VALUE;
+        for (String line : event.getLineProtocol().split("\n")) {
+            PendingPoint pending = pollOldest(line);
+            if (pending != null) {
+                firstSequence = Math.min(firstSequence, pending.sequence);
+                complete(pending, null);
+            }
+        }
+
+        Throwable cause = unresolvedFailure;
+        if (cause != null && firstSequence != Long.MAX_VALUE) {
+            unresolvedFailure = null;
+            for (PendingPoint pending : pendingBySequence.headMap(firstSequence).values()) {
+                if (complete(pending, cause)) {
+                    if (cause instanceof BackpressureException) {
+                        droppedPoints.increment();
+                    } else {
+                        failedPoints.increment();
+                    }
                 }
             }
         }
+    }
+
+    /**
+     * The error event does not carry the failed points, they are resolved by the next successful batch or the sweeper.
+     */
+    private synchronized void onWriteError(WriteErrorEvent event) {
+        logger.error("Exception when write influxdb batch: ", event.getThrowable());
+        unresolvedFailure = event.getThrowable();
+    }
+
+    /**
+     * The client dropped buffered points to stay under {@code INFLUXDB_BUFFER_LIMIT}, resolved like a failed batch.
+     */
+    private synchronized void onBackpressure(BackpressureEvent event) {
+        logger.warn("InfluxDB write buffer is full, points are dropped. Increase INFLUXDB_BUFFER_LIMIT or lower the rate.");
+        if (unresolvedFailure == null) {
+            unresolvedFailure = new BackpressureException();
+        }
+    }
+
+    private void failExpiredPoints() {
+        long deadline = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(setting.INFLUXDB_WRITE_TIMEOUT_MS);
+        for (PendingPoint pending : pendingBySequence.values()) {
+            if (pending.createdNanos - deadline > 0) {
+                // sequence order is creation order, every later point is younger still
+                return;
+            }
+            Throwable cause = unresolvedFailure;
+            if (complete(pending, new TimeoutException(String.format("No write acknowledgment within %dms%s",
+                    setting.INFLUXDB_WRITE_TIMEOUT_MS, cause == null ? "" : ", last write error: " + cause)))) {
+                timedOutPoints.increment();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest pending point with this line, identical points are batched in the order they were written
+     */
+    private PendingPoint pollOldest(String line) {
+        PendingPoint[] oldest = new PendingPoint[1];
+        pendingByLine.computeIfPresent(line, (key, queue) -> {
+            oldest[0] = queue.poll();
+            return queue.isEmpty() ? null : queue;
+        });
+        return oldest[0];
+    }
+
+    /**
+     * @return whether this call completed the point, it may race with another event for the same point
+     */
+    private boolean complete(PendingPoint pending, Throwable cause) {
+        if (!pendingBySequence.remove(pending.sequence, pending)) {
+            return false;
+        }
+        pendingCount.decrement();
+        pendingByLine.computeIfPresent(pending.line, (key, queue) -> {
+            queue.remove(pending);
+            return queue.isEmpty() ? null : queue;
+        });
+        if (cause == null) {
+            pending.future.complete(BatchingWriter.SUCCESS);
+        } else {
+            pending.future.completeExceptionally(cause);
+        }
+        return true;
+    }
+
+    private void writeBatch(List<UserNotify> batch, BatchFailures failures) throws IOException {
+        StringBuilder body = new StringBuilder(batch.size() * 128);
+        for (UserNotify userNotify : batch) {
+            if (body.length() > 0) {
+                body.append('\n');
+            }
+            body.append(map2Point(userNotify).toLineProtocol());
+        }
+
+        HttpPost request = new HttpPost(writeUrl);
+        request.setHeader("Authorization", "Token " + setting.INFLUXDB_TOKEN);
+        request.setEntity(new StringEntity(body.toString(), ContentType.create("text/plain", StandardCharsets.UTF_8)));
+
+        try (CloseableHttpResponse response = httpClient.execute(request)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String message = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+            if (statusCode != 204) {
+                throw new IOException("Write influxdb batch failed with status " + statusCode + ": " + message);
+            }
+        }
+    }
 
-        return results.stream().sorted((o1, o2) -> Long.compare(o2.getTimestamp(), o1.getTimestamp())).limit(20).collect(Collectors.toList());
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
+        return fetchDescAsync(userID, fromTime).get();
     }
 
     @Override
     public List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception {
-        QueryApi queryApi = influxDBClient.getQueryApi();
-
-        if (fromTime == null) {
-            fromTime = System.currentTimeMillis();
-        }
-        Flux flux = Flux.from(setting.INFLUXDB_BUCKET)
-                .range(Instant.now().minusSeconds(setting.TTL_IN_SECONDS), Instant.ofEpochMilli(fromTime))
-                .filter(Restrictions.and(
-                        Restrictions.measurement().equal(setting.INFLUXDB_MEASUREMENT),
-                        Restrictions.tag("user_id").equal(userID)
-                ));
-
-        List<UserNotify> results = new ArrayList<>();
-        Map<String, UserNotify> mapResult = new HashMap<>();
-
-        // Query data
-        List<FluxTable> tables = queryApi.query(flux.toString());
-        for (FluxTable fluxTable : tables) {
-            List<FluxRecord> records = fluxTable.getRecords();
-            for (FluxRecord fluxRecord : records) {
-                String notifyId = fluxRecord.getValueByKey("notify_id").toString();
-
-                UserNotify userNotify = mapResult.get(notifyId);
-                if (userNotify == null) {
-                    userNotify = new UserNotify();
-                    userNotify.setNotifyID(notifyId);
-                    userNotify.setUserID(userID);
-                    userNotify.setTimestamp(fluxRecord.getTime().toEpochMilli());
-
-                    mapResult.put(notifyId, userNotify);
-                    results.add(userNotify);
-                }
-                if (Objects.equals(fluxRecord.getField(), "data")) {
-                    userNotify.setData(Util.OBJECT_MAPPER.readValue(fluxRecord.getValue().toString(), ObjectNode.class));
-                }
+        return fetchAscAsync(userID, fromTime).get();
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        // range stop is exclusive, so the page ends right before fromTime
+        String range = fromTime == null
+                ? String.format("start: %s", expiryTime())
+                : String.format("start: %s, stop: %s", expiryTime(), Instant.ofEpochMilli(fromTime));
+        return query(buildFlux(userID, range, "", true, PAGE_SIZE), userID);
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        // range start is inclusive, so the page starts at the millisecond after fromTime
+        Instant start = expiryTime();
+        if (fromTime != null && fromTime >= start.toEpochMilli()) {
+            start = Instant.ofEpochMilli(fromTime + 1);
+        }
+        return query(buildFlux(userID, String.format("start: %s", start), "", false, PAGE_SIZE), userID);
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) throws Exception {
+        Instant expiryTime = expiryTime();
+        if (cursor == null) {
+            return query(buildFlux(userID, String.format("start: %s", expiryTime), "", true, pageSize), userID).get();
+        }
+        if (cursor.getTimestamp() < expiryTime.toEpochMilli()) {
+            return new ArrayList<>();
+        }
+
+        // the range keeps the cursor's millisecond, the filter drops its notifications up to the cursor
+        Instant time = Instant.ofEpochMilli(cursor.getTimestamp());
+        String range = String.format("start: %s, stop: %s", expiryTime, time.plusMillis(1));
+        String filter = String.format(" and (r._time < %s or r.notify_id < %s)", time, quote(cursor.getNotifyID()));
+        return query(buildFlux(userID, range, filter, true, pageSize), userID).get();
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) throws Exception {
+        Instant expiryTime = expiryTime();
+        if (cursor == null || cursor.getTimestamp() < expiryTime.toEpochMilli()) {
+            return query(buildFlux(userID, String.format("start: %s", expiryTime), "", false, pageSize), userID).get();
+        }
+
+        Instant time = Instant.ofEpochMilli(cursor.getTimestamp());
+        String filter = String.format(" and (r._time > %s or r.notify_id > %s)", time, quote(cursor.getNotifyID()));
+        return query(buildFlux(userID, String.format("start: %s", time), filter, false, pageSize), userID).get();
+    }
+
+    /**
+     * Bounds, ordering and page size are all evaluated by the server, which returns at most one page of rows with
+     * the data field pivoted next to the notify id. Every notify id is a series of its own, the notify id orders
+     * notifications of the same millisecond.
+     */
+    private String buildFlux(String userID, String range, String filter, boolean desc, int pageSize) {
+        return "from(bucket: " + quote(setting.INFLUXDB_BUCKET) + ")\n" +
+                "  |> range(" + range + ")\n" +
+                "  |> filter(fn: (r) => r._measurement == " + quote(setting.INFLUXDB_MEASUREMENT) +
+                " and r.user_id == " + quote(userID) + " and r._field == \"data\"" + filter + ")\n" +
+                "  |> pivot(rowKey: [\"_time\"], columnKey: [\"_field\"], valueColumn: \"_value\")\n" +
+                "  |> keep(columns: [\"_time\", \"notify_id\", \"data\"])\n" +
+                "  |> group()\n" +
+                "  |> sort(columns: [\"_time\", \"notify_id\"], desc: " + desc + ")\n" +
+                "  |> limit(n: " + pageSize + ")";
+    }
+
+    /**
+     * Decode the records as they are streamed from the response instead of materializing the flux tables first.
+     */
+    private CompletableFuture<List<UserNotify>> query(String flux, String userID) {
+        CompletableFuture<List<UserNotify>> future = new CompletableFuture<>();
+        List<UserNotify> results = new ArrayList<>(PAGE_SIZE);
+
+        influxDBClient.getQueryApi().query(flux, (cancellable, fluxRecord) -> {
+            try {
+                results.add(map2UserNotify(userID, fluxRecord));
+            } catch (Exception e) {
+                cancellable.cancel();
+                future.completeExceptionally(e);
             }
+        }, future::completeExceptionally, () -> future.complete(results));
+        return future;
+    }
+
+    private Instant expiryTime() {
+        return Instant.now().minusSeconds(setting.TTL_IN_SECONDS);
+    }
+
+    private static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    static UserNotify map2UserNotify(String userID, FluxRecord fluxRecord) throws IOException {
+        UserNotify userNotify = new UserNotify();
+        userNotify.setUserID(userID);
+        userNotify.setNotifyID(String.valueOf(fluxRecord.getValueByKey("notify_id")));
+        userNotify.setTimestamp(fluxRecord.getTime().toEpochMilli());
+        userNotify.setData(Util.OBJECT_MAPPER.readValue(String.valueOf(fluxRecord.getValueByKey("data")), ObjectNode.class));
+        return userNotify;
+    }
+
+    static Point map2Point(UserNotify userNotify) throws JsonProcessingException {
+        return Point.measurement(Settings.getInstance().INFLUXDB_MEASUREMENT)
+                .addTag("user_id", userNotify.getUserID())
+                .addTag("notify_id", userNotify.getNotifyID())
+                .addField("data", Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData()))
+                .time(userNotify.getTimestamp(), WritePrecision.MS);
+    }
+
+    private static final class PendingPoint {
+
+        private final String line;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private final long createdNanos = System.nanoTime();
+        // set by the drainer, the point is released once it is handed to the WriteApi
+        private Point point;
+        private long sequence;
+
+        private PendingPoint(Point point, String line) {
+            this.point = point;
+            this.line = line;
+        }
+
+    }
+
+    private static final class BackpressureException extends RejectedExecutionException {
+
+        private BackpressureException() {
+            super("Point dropped by the InfluxDB client, its write buffer was full");
         }
 
-        return results.stream().sorted(Comparator.comparingLong(UserNotify::getTimestamp)).limit(20).collect(Collectors.toList());
+    }
+
+    private enum WriteMode {
+        WRITE_API,
+        LINE_PROTOCOL
     }
 
 }
@@ -0,0 +1,33 @@
+package io.dogy.dao.impl;
+
+import java.util.Map;
+
+/**
+ * Value of a KairosDB data point of the registered custom type. The user id and the timestamp are already stored as
+ * the tag and the time of the data point, so only the notify id and the data travel in the value.
+ * <p>
+ * The data is kept as a plain map so it is written as a nested JSON object rather than a JSON string inside the value:
+ * the KairosDB client serializes data points with Gson, which would dump the internals of a Jackson node.
+ */
+final class KairosdbNotifyValue {
+
+    private String id;
+    private Map<String, Object> data;
+
+    KairosdbNotifyValue() {
+    }
+
+    KairosdbNotifyValue(String id, Map<String, Object> data) {
+        this.id = id;
+        this.data = data;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    Map<String, Object> getData() {
+        return data;
+    }
+
+}
@@ -1,40 +1,53 @@
 package io.dogy.dao.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
-import io.dogy.model.Pair;
+import io.dogy.dao.batch.BatchFailures;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
 import io.dogy.utility.CustomHttpClient;
 import io.dogy.utility.Util;
 import io.dogy.validator.IValidator;
 import org.apache.commons.lang.StringUtils;
-import org.kairosdb.client.builder.DataPoint;
-import org.kairosdb.client.builder.Metric;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
 import org.kairosdb.client.builder.MetricBuilder;
 import org.kairosdb.client.builder.QueryBuilder;
-import org.kairosdb.client.response.Queries;
-import org.kairosdb.client.response.QueryResponse;
 import org.kairosdb.client.response.Response;
-import org.kairosdb.client.response.Results;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 public class KairosdbUserNotifyDao implements IUserNotifyDao {
 
     private static final Logger logger = LoggerFactory.getLogger(KairosdbUserNotifyDao.class);
+    private static final int PAGE_SIZE = Settings.getInstance().PAGE_SIZE;
+    private static final TypeReference<Map<String, Object>> DATA_TYPE = new TypeReference<Map<String, Object>>() {
+    };
     private final CustomHttpClient client;
+    private final CloseableHttpAsyncClient asyncClient;
+    private final String queryUrl;
     private final Settings setting;
-    private final BlockingQueue<Pair<UserNotify, CompletableFuture<Object>>> queue = new LinkedBlockingQueue<>();
+    private final ValueType valueType;
+    private final BatchingWriter<UserNotify> writer = new BatchingWriter<>("kairosdb", this::writeBatch);
 
     @Autowired
     private IValidator<UserNotify> validator;
@@ -43,58 +56,31 @@ public class KairosdbUserNotifyDao implements IUserNotifyDao {
         setting = Settings.getInstance();
         String connectionString = String.format("http://%s:%s", setting.KAIROS_URL, setting.KAIROS_PORT);
         client = new CustomHttpClient(connectionString, 100);
+
+        queryUrl = connectionString + "/api/v1/datapoints/query";
+        asyncClient = HttpAsyncClients.custom()
+                .setMaxConnTotal(100)
+                .setMaxConnPerRoute(100)
+                .setDefaultRequestConfig(Util.createRequestConfig())
+                .build();
+        asyncClient.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                asyncClient.close();
+            } catch (IOException e) {
+                logger.error("Exception when close kairosdb async client: ", e);
+            }
+        }));
+
+        valueType = ValueType.valueOf(setting.KAIROS_VALUE_TYPE);
+        if (valueType == ValueType.CUSTOM) {
+            client.registerCustomDataType(setting.KAIROS_CUSTOM_TYPE, KairosdbNotifyValue.class);
+        }
     }
 
     @PostConstruct
     void init() {
-        AtomicBoolean isAvailable = new AtomicBoolean(true);
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> isAvailable.set(false)));
-        for (int i = 0; i < Settings.getInstance().EVENT_LOOP_COUNT; i++) {
-            CompletableFuture.runAsync(() -> {
-                MetricBuilder asyncMetricBuilder = MetricBuilder.getInstance();
-                while (isAvailable.get()) {
-                    List<Pair<UserNotify, CompletableFuture<Object>>> batch = new ArrayList<>();
-
-                    try {
-                        final int BATCH_SIZE = 100;
-                        int n = queue.drainTo(batch, BATCH_SIZE);
-                        if (n == 0) {
-                            Thread.sleep(50);
-                            continue;
-                        }
-
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            UserNotify userNotify = pair._1;
-
-                            Metric metric = asyncMetricBuilder.addMetric(setting.KAIROS_METRIC)
-                                    .addTag("user_id", userNotify.getUserID())
-                                    .addTag("notify_id", userNotify.getNotifyID());
-                            metric.addDataPoint(userNotify.getTimestamp(),userNotify);
-                        }
-                        Response response = client.pushMetrics(asyncMetricBuilder);
-                        int statusCode = response.getStatusCode();
-                        switch (statusCode) {
-                            case 204:
-                                break;
-                            case 500:
-                            case 400:
-                                logger.info(String.valueOf(statusCode));
-                                throw new Exception(StringUtils.join(response.getErrors(), "\n"));
-                        }
-                    } catch (Exception e) {
-                        logger.error("Exception when insert kairosdb row: ", e);
-
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.completeExceptionally(e);
-                        }
-                    } finally {
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.complete(new Object());
-                        }
-                    }
-                }
-            });
-        }
+        writer.start();
     }
 
     @Override
@@ -103,10 +89,7 @@ public class KairosdbUserNotifyDao implements IUserNotifyDao {
 //        if (!validator.validate(userNotify)) {
 //            throw new RuntimeException("Invalid data");
 //        }
-        Metric metric = metricBuilder.addMetric(setting.KAIROS_METRIC)
-                .addTag("user_id", userNotify.getUserID())
-                .addTag("notify_id", userNotify.getNotifyID());
-        metric.addDataPoint(userNotify.getTimestamp(), Util.OBJECT_MAPPER.writeValueAsString(userNotify));
+        addDataPoint(metricBuilder, userNotify);
         Response response = client.pushMetrics(metricBuilder);
 
         int statusCode = response.getStatusCode();
@@ -125,87 +108,216 @@ public class KairosdbUserNotifyDao implements IUserNotifyDao {
 //        if (!validator.validate(userNotify)) {
 //            throw new RuntimeException("Invalid data");
 //        }
-        CompletableFuture<Object> future = new CompletableFuture<>();
-        queue.add(new Pair<>(userNotify, future));
-        return future;
+        return writer.submit(userNotify);
     }
 
     @Override
-    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
-        if (fromTime == null) {
-            fromTime = System.currentTimeMillis();
-        }
-
-        QueryBuilder queryBuilder = QueryBuilder.getInstance();
-        queryBuilder.setStart(new Date(0L))
-                .setEnd(new Date(fromTime))
-                .addMetric(setting.KAIROS_METRIC)
-                .addTag("user_id", userID);
-        QueryResponse response = client.query(queryBuilder);
-
-        List<UserNotify> userNotifyList = new ArrayList<>();
+    public Map<String, Object> getStats() {
+        return writer.getStats();
+    }
 
-        int statusCode = client.query(queryBuilder).getStatusCode();
+    private void writeBatch(List<UserNotify> batch, BatchFailures failures) throws Exception {
+        MetricBuilder metricBuilder = MetricBuilder.getInstance();
+        for (UserNotify userNotify : batch) {
+            addDataPoint(metricBuilder, userNotify);
+        }
+        Response response = client.pushMetrics(metricBuilder);
+        int statusCode = response.getStatusCode();
         switch (statusCode) {
             case 204:
-                for (Queries query : response.getQueries()) {
-                    List<Results> results = query.getResults();
-                    for (Results result : results) {
-                        List<DataPoint> dataPoints = result.getDataPoints();
-                        for (DataPoint dataPoint : dataPoints) {
-                            System.out.println("datapoint: "+dataPoint.getValue());
-                            userNotifyList.add(Util.OBJECT_MAPPER.readValue(Util.OBJECT_MAPPER.writeValueAsString(dataPoint.getValue()), UserNotify.class));
-                        }
-                    }
-                }
                 break;
             case 500:
             case 400:
                 logger.info(String.valueOf(statusCode));
                 throw new Exception(StringUtils.join(response.getErrors(), "\n"));
         }
-        return userNotifyList;
+    }
+
+    /**
+     * The notify id stays a tag so notifications of the same user and millisecond remain separate series instead of
+     * overwriting each other.
+     */
+    private void addDataPoint(MetricBuilder metricBuilder, UserNotify userNotify) throws JsonProcessingException {
+        if (valueType == ValueType.CUSTOM) {
+            metricBuilder.addMetric(setting.KAIROS_METRIC, setting.KAIROS_CUSTOM_TYPE)
+                    .addTag("user_id", userNotify.getUserID())
+                    .addTag("notify_id", userNotify.getNotifyID())
+                    .addDataPoint(userNotify.getTimestamp(), new KairosdbNotifyValue(userNotify.getNotifyID(),
+                            Util.OBJECT_MAPPER.convertValue(userNotify.getData(), DATA_TYPE)));
+        } else {
+            metricBuilder.addMetric(setting.KAIROS_METRIC)
+                    .addTag("user_id", userNotify.getUserID())
+                    .addTag("notify_id", userNotify.getNotifyID())
+                    .addDataPoint(userNotify.getTimestamp(), Util.OBJECT_MAPPER.writeValueAsString(userNotify));
+        }
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
+        return fetchDescAsync(userID, fromTime).get();
     }
 
     @Override
     public List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception {
-        if (fromTime == null) {
-            fromTime = 0L;
+        return fetchAscAsync(userID, fromTime).get();
+    }
+
+    /**
+     * Every notify id is a series of its own, so the server-side order and limit are not global across the user's
+     * notifications: the page is sorted and cut here, like {@link #seek}.
+     */
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        // both query bounds are inclusive, the page ends right before fromTime
+        Date end = fromTime == null ? null : new Date(fromTime - 1);
+        return query(userID, new Date(expiryTime()), end).thenApply(results -> page(results, true, PAGE_SIZE));
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        long start = expiryTime();
+        if (fromTime != null && fromTime >= start) {
+            start = fromTime + 1;
         }
+        return query(userID, new Date(start), null).thenApply(results -> page(results, false, PAGE_SIZE));
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) throws Exception {
+        return seek(userID, cursor, pageSize, true).get();
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) throws Exception {
+        return seek(userID, cursor, pageSize, false).get();
+    }
+
+    /**
+     * One query between the cursor's millisecond and the edge of the TTL window, the notifications of that millisecond
+     * up to the cursor are skipped here. The read is not bounded by the page: KairosDB applies a limit to each series
+     * and every notify id is a series of its own, so the whole remaining window is transferred and the page is cut
+     * from it. The notify id stays a tag anyway, a single series per user would keep only one notification per
+     * millisecond.
+     */
+    private CompletableFuture<List<UserNotify>> seek(String userID, Cursor cursor, int pageSize, boolean desc) {
+        long expiryTime = expiryTime();
+        if (cursor == null) {
+            return query(userID, new Date(expiryTime), null).thenApply(results -> page(results, desc, pageSize));
+        }
+        if (desc && cursor.getTimestamp() < expiryTime) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        Date time = new Date(cursor.getTimestamp());
+        CompletableFuture<List<UserNotify>> results = desc
+                ? query(userID, new Date(expiryTime), time)
+                : query(userID, cursor.getTimestamp() < expiryTime ? new Date(expiryTime) : time, null);
+        return results.thenApply(window -> {
+            List<UserNotify> beyond = new ArrayList<>(window.size());
+            for (UserNotify userNotify : window) {
+                if (cursor.isBeyond(userNotify, desc)) {
+                    beyond.add(userNotify);
+                }
+            }
+            return page(beyond, desc, pageSize);
+        });
+    }
+
+    /**
+     * Sorts the data points of every series in timeline order and keeps the first {@code pageSize}.
+     */
+    static List<UserNotify> page(List<UserNotify> results, boolean desc, int pageSize) {
+        results.sort(desc ? Cursor.ORDER.reversed() : Cursor.ORDER);
+        return results.size() > pageSize ? new ArrayList<>(results.subList(0, pageSize)) : results;
+    }
+
+    /**
+     * Reads every data point of the user between the inclusive bounds. Neither order nor limit is sent: both apply
+     * per series, and each notification is a series of its own, so callers sort and cut the result with
+     * {@link #page}. The query is posted through the non-blocking HTTP client and the response decoded in its
+     * callback.
+     */
+    private CompletableFuture<List<UserNotify>> query(String userID, Date start, Date end) {
+        CompletableFuture<List<UserNotify>> future = new CompletableFuture<>();
+
         QueryBuilder queryBuilder = QueryBuilder.getInstance();
-        queryBuilder.setStart(new Date(fromTime))
-                .setEnd(new Date(System.currentTimeMillis()))
-                .addMetric(setting.KAIROS_METRIC)
+        queryBuilder.setStart(start);
+        if (end != null) {
+            queryBuilder.setEnd(end);
+        }
+        queryBuilder.addMetric(setting.KAIROS_METRIC)
                 .addTag("user_id", userID);
-        QueryResponse response = client.query(queryBuilder);
-
-        List<UserNotify> userNotifyList = new ArrayList<>();
 
-        int statusCode = client.query(queryBuilder).getStatusCode();
+        HttpPost request = new HttpPost(queryUrl);
+        try {
+            request.setEntity(new StringEntity(queryBuilder.build(), ContentType.APPLICATION_JSON));
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            return future;
+        }
 
-        System.out.println(statusCode);
-        switch (statusCode) {
-            case 204:
-                for (Queries query : response.getQueries()) {
-                    List<Results> results = query.getResults();
-                    System.out.println(results.toString());
-                    for (Results result : results) {
-                        List<DataPoint> dataPoints = result.getDataPoints();
-                        for (DataPoint dataPoint : dataPoints) {
-                            System.out.println("datapoint: "+dataPoint.getValue().toString());
-                            userNotifyList.add(Util.OBJECT_MAPPER.readValue(Util.OBJECT_MAPPER.writeValueAsString(dataPoint.getValue()), UserNotify.class));
-                        }
+        asyncClient.execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                try {
+                    int statusCode = response.getStatusLine().getStatusCode();
+                    JsonNode body = Util.OBJECT_MAPPER.readTree(response.getEntity().getContent());
+                    if (statusCode != 200) {
+                        logger.info(String.valueOf(statusCode));
+                        throw new Exception(StringUtils.join(body.path("errors").elements(), "\n"));
                     }
+                    future.complete(map2UserNotifyList(userID, body));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
                 }
-                break;
-            case 500:
-            case 400:
-                logger.info(String.valueOf(statusCode));
-                throw new Exception(StringUtils.join(response.getErrors(), "\n"));
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        });
+        return future;
+    }
+
+    static List<UserNotify> map2UserNotifyList(String userID, JsonNode body) throws IOException {
+        List<UserNotify> userNotifyList = new ArrayList<>(PAGE_SIZE);
+        for (JsonNode query : body.path("queries")) {
+            for (JsonNode result : query.path("results")) {
+                for (JsonNode dataPoint : result.path("values")) {
+                    userNotifyList.add(map2UserNotify(userID, dataPoint.get(0).asLong(), dataPoint.get(1)));
+                }
+            }
         }
         return userNotifyList;
     }
 
+    /**
+     * Custom type values carry only the notify id and the data object, the rest comes from the query and the data point.
+     * String values hold the whole notification serialized as JSON.
+     */
+    static UserNotify map2UserNotify(String userID, long timestamp, JsonNode value) throws IOException {
+        if (value.isTextual()) {
+            return Util.OBJECT_MAPPER.readValue(value.asText(), UserNotify.class);
+        }
+
+        UserNotify userNotify = new UserNotify();
+        userNotify.setUserID(userID);
+        userNotify.setNotifyID(value.path("id").asText());
+        userNotify.setTimestamp(timestamp);
+        userNotify.setData(Util.OBJECT_MAPPER.treeToValue(value.path("data"), ObjectNode.class));
+        return userNotify;
+    }
+
+    private long expiryTime() {
+        return System.currentTimeMillis() - setting.TTL_IN_SECONDS * 1000L;
+    }
+
     @Override
     public void flushDB() throws Exception {
         logger.info("Flushing kairos metric " + setting.KAIROS_METRIC);
@@ -240,4 +352,15 @@ public class KairosdbUserNotifyDao implements IUserNotifyDao {
         }
     }
 
+    private enum ValueType {
+        /**
+         * The whole notification serialized as a JSON string, readable by a stock KairosDB server.
+         */
+        JSON_STRING,
+        /**
+         * A {@link KairosdbNotifyValue} of {@code KAIROS_CUSTOM_TYPE}, which has to be registered on the server as well.
+         */
+        CUSTOM
+    }
+
 }
@@ -5,11 +5,17 @@ import com.stumbleupon.async.Callback;
 import com.stumbleupon.async.Deferred;
 import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
+import io.dogy.dao.batch.BatchFailures;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
+import io.dogy.utility.ULID;
 import io.dogy.utility.Util;
 import io.dogy.validator.IValidator;
 import net.opentsdb.core.*;
 import net.opentsdb.query.filter.TagVFilter;
+import net.opentsdb.uid.NoSuchUniqueName;
+import net.opentsdb.uid.UniqueId.UniqueIdType;
 import net.opentsdb.utils.Config;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -18,20 +24,39 @@ import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.Connection;
 import org.apache.hadoop.hbase.client.ConnectionFactory;
 import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.hbase.async.Bytes;
+import org.hbase.async.PutRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 public class OpentsdbUserNotifyDao implements IUserNotifyDao {
 
     private static final Logger logger = LoggerFactory.getLogger(OpentsdbUserNotifyDao.class);
+    private static final int PAGE_SIZE = Settings.getInstance().PAGE_SIZE;
+    // an 8 byte integer value, see Const.LENGTH_MASK
+    private static final short LONG_FLAGS = 0x7;
     private final TSDB tsdb;
     private final Settings setting = Settings.getInstance();
+    private final WriteMode writeMode = WriteMode.valueOf(setting.TSDB_WRITE_MODE);
+    private final BatchingWriter<UserNotify> writer = new BatchingWriter<>("opentsdb", this::writeBatch);
+    /**
+     * VALUE mode writes the cells itself, so the UIDs of the row key are resolved once and kept as bytes.
+     */
+    private final String msbMetric = setting.TSDB_METRIC + ".msb";
+    private byte[] metricUid;
+    private byte[] msbMetricUid;
+    private byte[] userTagkUid;
+    private final ConcurrentMap<String, byte[]> userUidCache = new ConcurrentHashMap<>();
+    private final LongAdder duplicatePoints = new LongAdder();
 
     @Autowired
     private IValidator<UserNotify> validator;
@@ -47,6 +72,7 @@ public class OpentsdbUserNotifyDao implements IUserNotifyDao {
         config.overrideConfig("tsd.core.meta.enable_tsuid_incrementing", "true");
         config.overrideConfig("tsd.storage.fix_duplicates", "true");
         config.overrideConfig("tsd.query.skip_unresolved_tagvs", "true");
+        config.overrideConfig("tsd.storage.flush_interval", String.valueOf(setting.TSDB_FLUSH_INTERVAL_MS)); //How often asynchbase flushes buffered edits
 
         config.overrideConfig("tsd.storage.hbase.data_table", setting.TSDB_HBASE_DATA_TABLE);//Name of the HBase table where data points are stored
         config.overrideConfig("tsd.storage.hbase.uid_table", setting.TSDB_HBASE_UID_TABLE);//Name of the HBase table where UID information is stored
@@ -56,6 +82,32 @@ public class OpentsdbUserNotifyDao implements IUserNotifyDao {
         this.tsdb = new TSDB(config);
     }
 
+    @PostConstruct
+    void init() {
+        // resolve the metric and tag names up front, so the first concurrent writes don't race to assign them
+        metricUid = resolveUid(UniqueIdType.METRIC, setting.TSDB_METRIC);
+        userTagkUid = resolveUid(UniqueIdType.TAGK, "user_id");
+        if (writeMode == WriteMode.TAG) {
+            resolveUid(UniqueIdType.TAGK, "notify_id");
+        } else {
+            msbMetricUid = resolveUid(UniqueIdType.METRIC, msbMetric);
+        }
+        writer.start();
+    }
+
+    private byte[] resolveUid(UniqueIdType type, String name) {
+        try {
+            return tsdb.getUID(type, name);
+        } catch (NoSuchUniqueName e) {
+            try {
+                return tsdb.assignUid(type.name().toLowerCase(), name);
+            } catch (IllegalArgumentException assigned) {
+                // assigned by another writer in the meantime
+                return tsdb.getUID(type, name);
+            }
+        }
+    }
+
     @Override
     public void insert(UserNotify userNotify) throws Exception {
         CompletableFuture<Object> future = insertAsync(userNotify);
@@ -65,156 +117,297 @@ public class OpentsdbUserNotifyDao implements IUserNotifyDao {
     @Override
     public CompletableFuture<Object> insertAsync(UserNotify userNotify) throws Exception {
         validator.validate(userNotify);
-        CompletableFuture<Object> future = new CompletableFuture<>();
-        // Write a number of data points at 30 second intervals. Each write will
-        // return a deferred (similar to a Java Future or JS Promise) that will
-        // be called on completion with either a "null" value on success or an
-        // exception.
+        return writer.submit(userNotify);
+    }
+
+    @Override
+    public Map<String, Object> getStats() {
+        if (writeMode == WriteMode.TAG) {
+            return writer.getStats();
+        }
+        Map<String, Object> stats = new LinkedHashMap<>(writer.getStats());
+        stats.put("opentsdb.duplicate_points", duplicatePoints.sum());
+        return stats;
+    }
 
-        String metricName = Settings.getInstance().TSDB_METRIC;
+    /**
+     * Issue every point of the batch, then flush asynchbase so the batch doesn't wait for the next flush interval.
+     * Each point reports its own failure and the batch completes once all of them are acknowledged. The errbacks run
+     * on asynchbase I/O threads, so their failures are only handed to {@code failures} by this worker after the join.
+     */
+    private void writeBatch(List<UserNotify> batch, BatchFailures failures) throws Exception {
+        List<Deferred<Object>> deferreds = new ArrayList<>(batch.size());
+        ConcurrentMap<Integer, Exception> pointFailures = new ConcurrentHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            UserNotify userNotify = batch.get(i);
+            final int index = i;
+
+            Deferred<Object> deferred;
+            if (writeMode == WriteMode.VALUE) {
+                deferred = putValue(userNotify);
+            } else {
+                Map<String, String> tags = new HashMap<>(4);
+                tags.put("user_id", userNotify.getUserID());
+                tags.put("notify_id", userNotify.getNotifyID());
+                deferred = tsdb.addPoint(setting.TSDB_METRIC, userNotify.getTimestamp(), userNotify.getTimestamp(), tags);
+            }
+            deferreds.add(deferred.addErrback((Callback<Object, Exception>) e -> {
+                pointFailures.put(index, e);
+                return null;
+            }));
+        }
+        tsdb.flush();
+        Deferred.group(deferreds).join();
 
-        long value = userNotify.getTimestamp();
-        Map<String, String> tags = new HashMap<>();
-        tags.put("user_id", userNotify.getUserID());
-        tags.put("notify_id", userNotify.getNotifyID());
+        for (Map.Entry<Integer, Exception> entry : pointFailures.entrySet()) {
+            failures.fail(entry.getKey(), entry.getValue());
+        }
+    }
 
-        Deferred<Object> deferred = tsdb.addPoint(metricName, userNotify.getTimestamp(), value, tags);
-        deferred.addBoth(new BothCallBack(future));
-        return future;
+    /**
+     * Writes the low and the high 64 bits of the notify id as two cells at the notification's millisecond, in the
+     * series of {@code TSDB_METRIC} and of its {@code .msb} companion. The row keys are built from the cached UIDs
+     * the same way {@link TSDB#addPoint} builds them, without resolving the names again for every point.
+     * <p>
+     * The low bits claim the cell with an atomic create, so a later notification of the same user and millisecond
+     * fails and is counted instead of overwriting the stored one. Only the winner writes the high bits, unbuffered
+     * since the batch has been flushed by then.
+     */
+    private Deferred<Object> putValue(UserNotify userNotify) {
+        ULID.Value id = ULID.parseULID(userNotify.getNotifyID());
+        byte[] userUid = userUidCache.computeIfAbsent(userNotify.getUserID(),
+                userID -> resolveUid(UniqueIdType.TAGV, userID));
+        long timestamp = userNotify.getTimestamp();
+        byte[] qualifier = Internal.buildQualifier(timestamp, LONG_FLAGS);
+
+        PutRequest lsb = new PutRequest(tsdb.dataTable(), rowKey(metricUid, userUid, timestamp), TSDB.FAMILY(),
+                qualifier, Bytes.fromLong(id.getLeastSignificantBits()));
+        PutRequest msb = new PutRequest(tsdb.dataTable(), rowKey(msbMetricUid, userUid, timestamp), TSDB.FAMILY(),
+                qualifier, Bytes.fromLong(id.getMostSignificantBits()));
+        msb.setBufferable(false);
+
+        return tsdb.getClient().atomicCreate(lsb).addCallbackDeferring((Callback<Deferred<Object>, Boolean>) isCreated -> {
+            if (!isCreated) {
+                duplicatePoints.increment();
+                return Deferred.fromError(new IllegalStateException(String.format(
+                        "VALUE mode keeps one notification per user and millisecond, %s of user %s at %d is not written",
+                        userNotify.getNotifyID(), userNotify.getUserID(), timestamp)));
+            }
+            return tsdb.getClient().put(msb);
+        });
+    }
+
+    private byte[] rowKey(byte[] metric, byte[] userUid, long timestamp) {
+        long seconds = timestamp / 1000;
+        byte[] row = new byte[Const.SALT_WIDTH() + metric.length + Integer.BYTES + userTagkUid.length + userUid.length];
+        int offset = Const.SALT_WIDTH();
+        System.arraycopy(metric, 0, row, offset, metric.length);
+        offset += metric.length;
+        Bytes.setInt(row, (int) (seconds - seconds % Const.MAX_TIMESPAN), offset);
+        offset += Integer.BYTES;
+        System.arraycopy(userTagkUid, 0, row, offset, userTagkUid.length);
+        offset += userTagkUid.length;
+        System.arraycopy(userUid, 0, row, offset, userUid.length);
+        RowKey.prefixKeyWithSalt(row);
+        return row;
     }
 
     @Override
     public List<UserNotify> fetchDesc(String userID, Long fromTime) throws Exception {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        //main query
-        final TSQuery query = new TSQuery();
-        if (fromTime == null) {
-            fromTime = System.currentTimeMillis();
-        }
-        query.setStart(dateFormat.format(new Date(0L)));
-        query.setEnd(dateFormat.format(new Date(fromTime)));
-        // at least one sub query required. This is where you specify the metric and
-        // tags
-        final TSSubQuery subQuery = new TSSubQuery();
-        subQuery.setMetric(Settings.getInstance().TSDB_METRIC);//required
+        return fetchDescAsync(userID, fromTime).get();
+    }
 
-        // add filters
-        final List<TagVFilter> filters = new ArrayList<>(1);//optional
-        TagVFilter.Builder builder = new TagVFilter.Builder();
-        builder.setType("literal_or") // In SQL, literal_ is similar to the IN or = predicates.
-                .setFilter(userID)
-                .setTagk("user_id")
-                .setGroupBy(true);
-        filters.add(builder.build());
-        subQuery.setFilters(filters);
-
-        //Aggregation functions are means of merging two or more data points for a single time stamp into a single value
-        subQuery.setAggregator("count");//required. 'count' --> The number of raw data points in the set
-        // IMPORTANT: don't forget to add the subQuery
-        final ArrayList<TSSubQuery> subQueries = new ArrayList<>(1);
-        subQueries.add(subQuery);
-        query.setQueries(subQueries);
-        query.setMsResolution(true); // otherwise we aggregate on the second.
-        // make sure the query is valid.
-        query.validateAndSetQuery();
-        // compile the queries into TsdbQuery objects behind the scenes
-        Query[] tsdbqueries = query.buildQueries(tsdb);
-        Deferred<DataPoints[]> deferred = tsdbqueries[0].runAsync();
-        CompletableFuture<DataPoints[]> future = new CompletableFuture<>();
-        deferred.addBoth(new QueryCallBack(future));
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception {
+        return fetchAscAsync(userID, fromTime).get();
+    }
 
-        List<UserNotify> results = new ArrayList<>();
-//        Map<String, UserNotify> mapResult = new HashMap<>();
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        // both bounds are inclusive, the page ends right before fromTime
+        long end = fromTime == null ? System.currentTimeMillis() : fromTime - 1;
+        return query(userID, expiryTime(), end, true, null, PAGE_SIZE);
+    }
 
-        DataPoints[] dataResults = future.get();
-        for (DataPoints data : dataResults) {
-            for (DataPoint dp : data) {
-                UserNotify userNotify = new UserNotify();
-                Map<String, String> tags = data.getTags();
-                for (final Map.Entry<String, String> pair : tags.entrySet()) {
-                    switch (pair.getKey()) {
-                        case "user_id":
-                            userNotify.setUserID(pair.getValue());
-                            break;
-                        case "notify_id":
-                            userNotify.setNotifyID(pair.getValue());
-                            break;
-                    }
-                }
-                userNotify.setTimestamp(dp.timestamp());
-                userNotify.setData(null);
-                results.add(userNotify);
-            }
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        long start = expiryTime();
+        if (fromTime != null && fromTime >= start) {
+            start = fromTime + 1;
         }
-        return results;
+        return query(userID, start, System.currentTimeMillis(), false, null, PAGE_SIZE);
     }
 
+    /**
+     * The window starts or ends at the cursor's millisecond, and the notifications of that millisecond up to the
+     * cursor are skipped while decoding.
+     */
     @Override
-    public List<UserNotify> fetchAsc(String userID, Long fromTime) throws Exception {
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        //main query
-        final TSQuery query = new TSQuery();
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) throws Exception {
+        long expiryTime = expiryTime();
+        if (cursor == null) {
+            return query(userID, expiryTime, System.currentTimeMillis(), true, null, pageSize).get();
+        }
+        return query(userID, expiryTime, cursor.getTimestamp(), true, cursor, pageSize).get();
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) throws Exception {
+        long expiryTime = expiryTime();
+        if (cursor == null || cursor.getTimestamp() < expiryTime) {
+            return query(userID, expiryTime, System.currentTimeMillis(), false, null, pageSize).get();
+        }
+        return query(userID, cursor.getTimestamp(), System.currentTimeMillis(), false, cursor, pageSize).get();
+    }
 
-        if (fromTime == null) {
-            fromTime = 0L;
+    /**
+     * OpenTSDB can neither order nor limit a query, so the scan is bounded by the TTL window instead and at most one
+     * page is decoded from each series before the series are merged into the final page. Nothing blocks: every step
+     * runs in the callbacks of the asynchbase deferreds.
+     */
+    private CompletableFuture<List<UserNotify>> query(String userID, long start, long end, boolean desc,
+                                                      Cursor cursor, int pageSize) {
+        if (start > end) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
-        query.setStart(dateFormat.format(new Date(fromTime)));
-        query.setEnd(dateFormat.format(new Date()));
 
-        final List<TagVFilter> filters = new ArrayList<>(1);//optional
-        TagVFilter.Builder builder = new TagVFilter.Builder();
-        builder.setType("literal_or") // In SQL, literal_ is similar to the IN or = predicates.
+        final TSQuery query = new TSQuery();
+        query.setStart(String.valueOf(start));
+        query.setEnd(String.valueOf(end));
+
+        TagVFilter filter = new TagVFilter.Builder()
+                .setType("literal_or")
                 .setFilter(userID)
                 .setTagk("user_id")
-                .setGroupBy(true);
-        filters.add(builder.build());
+                .setGroupBy(true)
+                .build();
 
-        // at least one sub query required. This is where you specify the metric and
-        // tags
         final TSSubQuery subQuery = new TSSubQuery();
+        subQuery.setMetric(setting.TSDB_METRIC);
+        subQuery.setFilters(Lists.newArrayList(filter));
+        // 'none' returns the raw data points of every series instead of merging them
+        subQuery.setAggregator("none");
+
+        if (writeMode == WriteMode.VALUE) {
+            final TSSubQuery msbSubQuery = new TSSubQuery();
+            msbSubQuery.setMetric(msbMetric);
+            msbSubQuery.setFilters(Lists.newArrayList(filter));
+            msbSubQuery.setAggregator("none");
+            query.setQueries(Lists.newArrayList(subQuery, msbSubQuery));
+        } else {
+            query.setQueries(Lists.newArrayList(subQuery));
+        }
+        query.setMsResolution(true);
 
-        subQuery.setMetric(Settings.getInstance().TSDB_METRIC);//required
-
-        // add filters
-        subQuery.setFilters(filters);
-        //Aggregation functions are means of merging two or more data points for a single time stamp into a single value
-        subQuery.setAggregator("count");//required. 'count' --> The number of raw data points in the set
-
-        query.setQueries(Lists.newArrayList(subQuery));
-        query.setMsResolution(true); // otherwise we aggregate on the second.
-        // make sure the query is valid.
-        query.validateAndSetQuery();
-        // compile the queries into TsdbQuery objects behind the scenes
-        Query[] tsdbqueries = query.buildQueries(tsdb);
-        Deferred<DataPoints[]> deferred = tsdbqueries[0].runAsync();
+        try {
+            query.validateAndSetQuery();
+        } catch (Exception e) {
+            CompletableFuture<List<UserNotify>> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
 
-        CompletableFuture<DataPoints[]> future = new CompletableFuture<>();
-        deferred.addBoth(new QueryCallBack(future));
+        return toFuture(query.buildQueriesAsync(tsdb)).thenCompose(tsdbQueries -> {
+            if (writeMode == WriteMode.VALUE) {
+                return toFuture(tsdbQueries[0].runAsync()).thenCombine(toFuture(tsdbQueries[1].runAsync()),
+                        (dataResults, msbResults) -> decodeValues(userID, dataResults, msbResults, desc, cursor, pageSize));
+            }
+            return toFuture(tsdbQueries[0].runAsync())
+                    .thenCompose(dataResults -> decodeTags(userID, dataResults, desc, cursor, pageSize));
+        });
+    }
 
+    /**
+     * The filter selects a single user, so each query returns that user's one series, or none if nothing was written.
+     */
+    private List<UserNotify> decodeValues(String userID, DataPoints[] dataResults, DataPoints[] msbResults,
+                                          boolean desc, Cursor cursor, int pageSize) {
         List<UserNotify> results = new ArrayList<>();
-//        Map<String, UserNotify> mapResult = new HashMap<>();
+        if (msbResults.length > 0) {
+            for (DataPoints data : dataResults) {
+                collectPage(userID, null, data, msbResults[0], desc, cursor, pageSize, results);
+            }
+        }
+        return page(results, desc, pageSize);
+    }
 
-        DataPoints[] dataResults = future.get();
+    private CompletableFuture<List<UserNotify>> decodeTags(String userID, DataPoints[] dataResults, boolean desc,
+                                                           Cursor cursor, int pageSize) {
+        // the notify id is a tag, resolve the tags of every series before decoding it
+        List<CompletableFuture<Map<String, String>>> tagFutures = new ArrayList<>(dataResults.length);
         for (DataPoints data : dataResults) {
-            for (DataPoint dp : data) {
-                UserNotify userNotify = new UserNotify();
-                Map<String, String> tags = data.getTags();
-                for (final Map.Entry<String, String> pair : tags.entrySet()) {
-                    switch (pair.getKey()) {
-                        case "user_id":
-                            userNotify.setUserID(pair.getValue());
-                            break;
-                        case "notify_id":
-                            userNotify.setNotifyID(pair.getValue());
-                            break;
-                    }
+            tagFutures.add(toFuture(data.getTagsAsync()));
+        }
+        return CompletableFuture.allOf(tagFutures.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            List<UserNotify> results = new ArrayList<>();
+            for (int i = 0; i < dataResults.length; i++) {
+                collectPage(userID, tagFutures.get(i).join().get("notify_id"), dataResults[i], null, desc, cursor,
+                        pageSize, results);
+            }
+            return page(results, desc, pageSize);
+        });
+    }
+
+    /**
+     * Decode at most one page of the series, starting from the end in descending order and skipping the data points
+     * which are not beyond the cursor. Without a notify id tag the id is rebuilt from the low bits in {@code data} and
+     * the high bits in {@code msb} at the same millisecond.
+     */
+    private void collectPage(String userID, String notifyID, DataPoints data, DataPoints msb, boolean desc,
+                             Cursor cursor, int pageSize, List<UserNotify> results) {
+        int size = data.size();
+        int msbSize = msb == null ? 0 : msb.size();
+        int j = 0;
+        int count = 0;
+        for (int i = 0; i < size && count < pageSize; i++) {
+            int index = desc ? size - 1 - i : i;
+            long timestamp = data.timestamp(index);
+
+            UserNotify userNotify = new UserNotify();
+            userNotify.setUserID(userID);
+            if (notifyID != null) {
+                userNotify.setNotifyID(notifyID);
+            } else {
+                // both series are walked in the same direction, the matching high bits are never behind j
+                while (j < msbSize && (desc ? msb.timestamp(msbSize - 1 - j) > timestamp
+                        : msb.timestamp(j) < timestamp)) {
+                    j++;
+                }
+                int msbIndex = desc ? msbSize - 1 - j : j;
+                if (j == msbSize || msb.timestamp(msbIndex) != timestamp) {
+                    // the high bits failed or are not written yet, the id can't be restored
+                    continue;
                 }
-                userNotify.setTimestamp(dp.timestamp());
-                userNotify.setData(null);
+                userNotify.setNotifyID(new ULID.Value(msb.longValue(msbIndex), data.longValue(index)).toString());
+            }
+            userNotify.setTimestamp(timestamp);
+            userNotify.setData(null);
+            if (cursor == null || cursor.isBeyond(userNotify, desc)) {
                 results.add(userNotify);
+                count++;
             }
         }
-        return results;
+    }
+
+    private static List<UserNotify> page(List<UserNotify> results, boolean desc, int pageSize) {
+        results.sort(desc ? Cursor.ORDER.reversed() : Cursor.ORDER);
+        return results.size() > pageSize ? new ArrayList<>(results.subList(0, pageSize)) : results;
+    }
+
+    private long expiryTime() {
+        return System.currentTimeMillis() - setting.TTL_IN_SECONDS * 1000L;
+    }
+
+    private static <T> CompletableFuture<T> toFuture(Deferred<T> deferred) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        deferred.addCallbacks((Callback<Object, T>) result -> {
+            future.complete(result);
+            return result;
+        }, (Callback<Object, Exception>) e -> {
+            future.completeExceptionally(e);
+            return e;
+        });
+        return future;
     }
 
     @Override
@@ -258,54 +451,6 @@ public class OpentsdbUserNotifyDao implements IUserNotifyDao {
         tsdb.dropCaches();
     }
 
-    private static class BothCallBack implements Callback<Object, Object> {
-        private final CompletableFuture<Object> future;
-
-        public BothCallBack(CompletableFuture<Object> future) {
-            this.future = future;
-        }
-
-        @Override
-        public Object call(Object arg) {
-            if (arg instanceof Exception) {
-                Exception e = (Exception) arg;
-                future.completeExceptionally(e);
-                return e.getMessage();
-            }
-            future.complete(arg);
-            return arg;
-        }
-    }
-
-    private static class QueryCallBack implements Callback<Object, DataPoints[]> {
-        private final CompletableFuture<DataPoints[]> future;
-
-        public QueryCallBack(CompletableFuture<DataPoints[]> future) {
-            this.future = future;
-        }
-
-        @Override
-        public Object call(DataPoints[] queryResult) {
-            for (DataPoints result : queryResult) {
-                if (result instanceof Exception) {
-                    Exception e = (Exception) result;
-                    future.completeExceptionally(e);
-                    return e.getMessage();
-                }
-            }
-            future.complete(queryResult);
-            return queryResult;
-        }
-
-//        public static void processArgs(final String[] args) {
-//            // Set these as arguments so you don't have to keep path information in
-//            // source files
-//            if (args != null && args.length > 0) {
-//                pathToConfigFile = args[0];
-//            }
-//        }
-    }
-
     public static void main(String[] args) {
         try {
             OpentsdbUserNotifyDao testDao = new OpentsdbUserNotifyDao();
@@ -335,4 +480,17 @@ public class OpentsdbUserNotifyDao implements IUserNotifyDao {
         }
     }
 
+    private enum WriteMode {
+        /**
+         * The notify id is a tag, so every notification creates its own UID and time series.
+         */
+        TAG,
+        /**
+         * One time series per user and a companion {@code .msb} series, holding the low and the high 64 bits of the
+         * notify id. Only one notification per user and millisecond can be stored: the first write wins, later ones
+         * fail and are counted as {@code opentsdb.duplicate_points}.
+         */
+        VALUE
+    }
+
 }
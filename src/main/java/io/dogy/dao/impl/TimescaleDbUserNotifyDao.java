@@ -1,137 +1,212 @@
 package io.dogy.dao.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
 import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
-import io.dogy.model.Pair;
+import io.dogy.dao.batch.BatchFailures;
+import io.dogy.dao.batch.BatchingWriter;
+import io.dogy.dao.pool.LightweightDataSource;
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
+import io.dogy.utility.ULID;
 import io.dogy.utility.Util;
 import io.dogy.validator.IValidator;
 import org.apache.commons.dbcp2.BasicDataSource;
 import org.postgresql.Driver;
-import org.postgresql.util.PGobject;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
 
 import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
 
 public class TimescaleDbUserNotifyDao implements IUserNotifyDao {
 
     private static final Logger logger = LoggerFactory.getLogger(TimescaleDbUserNotifyDao.class);
-    private final BlockingQueue<Pair<UserNotify, CompletableFuture<Object>>> queue = new LinkedBlockingQueue<>();
+    private final BatchingWriter<UserNotify> writer = new BatchingWriter<>("timescaledb", this::writeBatch);
+    /**
+     * JDBC only offers blocking reads, the async fetches run on this dedicated pool, sized like the connection pool
+     * since every read holds a connection anyway.
+     */
+    private final ExecutorService readPool = Util.createDaemonPool("timescaledb-reader-%d", Settings.getInstance().TIMESCALEDB_POOL_SIZE);
 
     private final JdbcTemplate jdbcWriteTemplate;
     private final JdbcTemplate jdbcReadTemplate;
-    private static final String TABLE_NAME = "\"" + Settings.getInstance().TIMESCALEDB_TABLE + "\"";
-    private static final RowMapper<UserNotify> ROW_MAPPER = new UserNotifyRowMapper();
+    private static final Schema SCHEMA = Schema.valueOf(Settings.getInstance().TIMESCALEDB_SCHEMA);
+    private static final boolean BYTEA_PAYLOAD = SCHEMA == Schema.COMPACT
+            && "BYTEA".equals(Settings.getInstance().TIMESCALEDB_PAYLOAD);
+    /**
+     * The compact schema lives in its own table, so both layouts can be compared on the same database.
+     */
+    private static final String TABLE = Settings.getInstance().TIMESCALEDB_TABLE + (SCHEMA == Schema.COMPACT ? "_compact" : "");
+    private static final String TABLE_NAME = "\"" + TABLE + "\"";
+    private static final String DATA_PLACEHOLDER = BYTEA_PAYLOAD ? "?" : "?::jsonb";
+    private static final String INSERT_SQL = String.format("INSERT INTO %s(timestamp, user_id, notify_id, data)" +
+            " VALUES (?, ?, ?, %s)", TABLE_NAME, DATA_PLACEHOLDER);
+    private static final String COPY_TEXT_SQL = String.format("COPY %s(timestamp, user_id, notify_id, data)" +
+            " FROM STDIN", TABLE_NAME);
+    private static final String COPY_BINARY_SQL = COPY_TEXT_SQL + " WITH (FORMAT binary)";
+    private static final byte[] COPY_BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final long POSTGRES_EPOCH_MILLIS = Instant.parse("2000-01-01T00:00:00Z").toEpochMilli();
+    /**
+     * The read statements never change, so the driver prepares them once per connection on the server.
+     */
+    private static final String SELECT_SQL = String.format("SELECT timestamp, user_id, notify_id, data FROM %s" +
+            " WHERE user_id=?", TABLE_NAME);
+    private static final String PAGE_LIMIT = " LIMIT " + Settings.getInstance().PAGE_SIZE;
+    private static final String FETCH_DESC_SQL = SELECT_SQL + " ORDER BY timestamp DESC" + PAGE_LIMIT;
+    private static final String FETCH_DESC_FROM_SQL = SELECT_SQL + " AND timestamp < ? ORDER BY timestamp DESC" + PAGE_LIMIT;
+    private static final String FETCH_ASC_SQL = SELECT_SQL + " ORDER BY timestamp ASC" + PAGE_LIMIT;
+    private static final String FETCH_ASC_FROM_SQL = SELECT_SQL + " AND timestamp > ? ORDER BY timestamp ASC" + PAGE_LIMIT;
+    /**
+     * Keyset pagination, the row comparison against the cursor is a range condition on the user index.
+     */
+    private static final String SEEK_DESC_SQL = SELECT_SQL + " ORDER BY timestamp DESC, notify_id DESC LIMIT ?";
+    private static final String SEEK_DESC_FROM_SQL = SELECT_SQL + " AND (timestamp, notify_id) < (?, ?)" +
+            " ORDER BY timestamp DESC, notify_id DESC LIMIT ?";
+    private static final String SEEK_ASC_SQL = SELECT_SQL + " ORDER BY timestamp ASC, notify_id ASC LIMIT ?";
+    private static final String SEEK_ASC_FROM_SQL = SELECT_SQL + " AND (timestamp, notify_id) > (?, ?)" +
+            " ORDER BY timestamp ASC, notify_id ASC LIMIT ?";
+    private static final long MAX_CONN_LIFETIME_MS = 900000;
+    private static final String COMPRESS_ORDER_BY = "timestamp DESC, notify_id DESC";
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+
+    private final WriteMode writeMode = WriteMode.valueOf(Settings.getInstance().TIMESCALEDB_WRITE_MODE);
+    private final int batchSize = Settings.getInstance().TIMESCALEDB_BATCH_SIZE;
+    private volatile String fullChunkInsertSql;
+    private final LongAdder readCount = new LongAdder();
+    private final LongAdder readCpuNanos = new LongAdder();
+    static final RowMapper<UserNotify> ROW_MAPPER = new UserNotifyRowMapper();
 
     @Autowired
     private IValidator<UserNotify> validator;
 
     public TimescaleDbUserNotifyDao() {
-        jdbcWriteTemplate = createJdbcTemplate();
-        jdbcReadTemplate = createJdbcTemplate();
+        jdbcWriteTemplate = createJdbcTemplate("timescaledb-write");
+        jdbcReadTemplate = createJdbcTemplate("timescaledb-read");
     }
 
     @PostConstruct
     void init() {
         // create table if not exists
-        jdbcWriteTemplate.execute(String.format(
-                "CREATE TABLE IF NOT EXISTS %s (" +
-                        "timestamp      TIMESTAMPTZ     NOT NULL," +
-                        "user_id         TEXT            NOT NULL," +
-                        "notify_id       TEXT            NOT NULL," +
-                        "data           JSONB" +
-                        ")",
-                TABLE_NAME));
+        if (SCHEMA == Schema.COMPACT) {
+            jdbcWriteTemplate.execute(String.format(
+                    "CREATE TABLE IF NOT EXISTS %s (" +
+                            "timestamp      TIMESTAMPTZ     NOT NULL," +
+                            "user_id         BIGINT          NOT NULL," +
+                            "notify_id       UUID            NOT NULL," +
+                            "data           %s" +
+                            ")",
+                    TABLE_NAME, BYTEA_PAYLOAD ? "BYTEA" : "JSONB"));
+        } else {
+            jdbcWriteTemplate.execute(String.format(
+                    "CREATE TABLE IF NOT EXISTS %s (" +
+                            "timestamp      TIMESTAMPTZ     NOT NULL," +
+                            "user_id         TEXT            NOT NULL," +
+                            "notify_id       TEXT            NOT NULL," +
+                            "data           JSONB" +
+                            ")",
+                    TABLE_NAME));
+        }
 
-        // create hypertable if not exists
+        // create hypertable if not exists, the space dimension only applies when the hypertable is created
+        Settings setting = Settings.getInstance();
+        String spaceDimension = setting.TIMESCALEDB_SPACE_PARTITIONS > 0
+                ? String.format(" partitioning_column => 'user_id', number_partitions => %d,", setting.TIMESCALEDB_SPACE_PARTITIONS)
+                : "";
         jdbcWriteTemplate.execute(String.format(
                 "SELECT create_hypertable('%s', 'timestamp'," +
+                        "%s" +
                         " if_not_exists => TRUE," +
                         " chunk_time_interval => INTERVAL '1 day')",
-                TABLE_NAME));
+                TABLE_NAME, spaceDimension));
+
+        // a page of one user is a single index range in every chunk instead of a scan of the chunk, the notify id
+        // keeps the range exact for cursors inside a millisecond
+        if (setting.TIMESCALEDB_USER_INDEX) {
+            // replaced by the index below, it would only slow down the inserts of existing databases
+            jdbcWriteTemplate.execute(String.format("DROP INDEX IF EXISTS \"%s_user_id_timestamp_idx\"", TABLE));
+            jdbcWriteTemplate.execute(String.format(
+                    "CREATE INDEX IF NOT EXISTS \"%s_user_id_timestamp_notify_id_idx\"" +
+                            " ON %s (user_id, timestamp DESC, notify_id DESC)",
+                    TABLE, TABLE_NAME));
+        }
 
         // Automatic Data Retention
         jdbcWriteTemplate.execute(String.format(
                 "SELECT add_drop_chunks_policy('%s', INTERVAL '30 days', if_not_exists => TRUE)",
                 TABLE_NAME));
 
-        AtomicBoolean isAvailable = new AtomicBoolean(true);
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> isAvailable.set(false)));
-
-        for (int i = 0; i < Settings.getInstance().EVENT_LOOP_COUNT; i++) {
-            CompletableFuture.runAsync(() -> {
-                while (isAvailable.get()) {
-                    List<Pair<UserNotify, CompletableFuture<Object>>> batch = new ArrayList<>();
-
-                    try {
-                        final int BATCH_SIZE = 100;
-                        int n = queue.drainTo(batch, BATCH_SIZE);
-                        if (n == 0) {
-                            Thread.sleep(50);
-                            continue;
-                        }
-
-                        List<Pair<UserNotify, PGobject>> list = new ArrayList<>();
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            PGobject data = new PGobject();
-                            data.setType("jsonb");
-                            data.setValue(Util.OBJECT_MAPPER.writeValueAsString(pair._1.getData()));
-
-                            list.add(new Pair<>(pair._1, data));
-                        }
-
-                        String sql = String.format("INSERT INTO %s(timestamp, user_id, notify_id, data)" +
-                                "  VALUES (?, ?, ?, ?)", TABLE_NAME);
-
-                        jdbcWriteTemplate.batchUpdate(sql,
-                                new BatchPreparedStatementSetter() {
-                                    public void setValues(PreparedStatement ps, int i) throws SQLException {
-                                        Pair<UserNotify, PGobject> pair = list.get(i);
-                                        UserNotify userNotify = pair._1;
-                                        PGobject data = pair._2;
-
-                                        ps.setTimestamp(1, new Timestamp(userNotify.getTimestamp()), Calendar.getInstance());
-                                        ps.setString(2, userNotify.getUserID());
-                                        ps.setString(3, userNotify.getNotifyID());
-                                        ps.setObject(4, data);
-                                    }
-
-                                    public int getBatchSize() {
-                                        return list.size();
-                                    }
-                                });
-                    } catch (Exception e) {
-                        logger.error("Exception when insert timescaledb row: ", e);
-
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.completeExceptionally(e);
-                        }
-                    } finally {
-                        for (Pair<UserNotify, CompletableFuture<Object>> pair : batch) {
-                            pair._2.complete(new Object());
-                        }
-                    }
-                }
-            });
+        // native compression keeps the rows of a user together, in page order, inside each compressed segment. The
+        // settings can't be altered once chunks are compressed, so they only apply to hypertables which don't compress
+        // yet, older ones keep theirs and are only reported
+        if (setting.TIMESCALEDB_COMPRESSION) {
+            Boolean isCompressionEnabled = jdbcWriteTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM timescaledb_information.compressed_hypertable_stats" +
+                            " WHERE hypertable_name = ?::regclass)",
+                    Boolean.class, TABLE_NAME);
+            if (!Boolean.TRUE.equals(isCompressionEnabled)) {
+                jdbcWriteTemplate.execute(String.format(
+                        "ALTER TABLE %s SET (timescaledb.compress," +
+                                " timescaledb.compress_segmentby = 'user_id'," +
+                                " timescaledb.compress_orderby = '%s')",
+                        TABLE_NAME, COMPRESS_ORDER_BY));
+            } else {
+                warnOnCompressOrderBy();
+            }
+            jdbcWriteTemplate.execute(String.format(
+                    "SELECT add_compress_chunks_policy('%s', INTERVAL '%s', if_not_exists => TRUE)",
+                    TABLE_NAME, setting.TIMESCALEDB_COMPRESS_AFTER));
+        }
+
+        writer.start();
+    }
+
+    private void warnOnCompressOrderBy() {
+        try {
+            String orderBy = jdbcWriteTemplate.queryForObject(
+                    "SELECT string_agg(hc.attname || CASE WHEN hc.orderby_asc THEN '' ELSE ' DESC' END, ', '" +
+                            " ORDER BY hc.orderby_column_index)" +
+                            " FROM _timescaledb_catalog.hypertable_compression hc" +
+                            " JOIN _timescaledb_catalog.hypertable h ON h.id = hc.hypertable_id" +
+                            " WHERE h.table_name = ? AND hc.orderby_column_index IS NOT NULL",
+                    String.class, TABLE);
+            if (!COMPRESS_ORDER_BY.equals(orderBy)) {
+                logger.warn("{} compresses with orderby '{}' instead of '{}', compressed segments don't follow the page"
+                        + " order. Recreate the table to apply the new setting.", TABLE_NAME, orderBy, COMPRESS_ORDER_BY);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Could not read the compression settings of " + TABLE_NAME, e);
         }
     }
 
@@ -140,24 +215,27 @@ public class TimescaleDbUserNotifyDao implements IUserNotifyDao {
         jdbcWriteTemplate.execute(String.format("TRUNCATE TABLE %s", TABLE_NAME));
     }
 
+    /**
+     * Compress every chunk which is not compressed yet, instead of waiting for the compression policy.
+     */
+    @Override
+    public void compact() {
+        if (!Settings.getInstance().TIMESCALEDB_COMPRESSION) {
+            return;
+        }
+        jdbcWriteTemplate.queryForList(String.format(
+                "SELECT compress_chunk(chunk, if_not_compressed => TRUE) FROM show_chunks('%s') chunk",
+                TABLE_NAME));
+    }
+
     @Override
     public void insert(UserNotify userNotify) throws Exception {
         if (!validator.validate(userNotify)) {
             throw new RuntimeException("Invalid data");
         }
-        String sql = String.format("INSERT INTO %s(timestamp, user_id, notify_id, data)" +
-                "  VALUES (?, ?, ?, ?)", TABLE_NAME);
-
-        PGobject data = new PGobject();
-        data.setType("jsonb");
-        data.setValue(Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData()));
-
-        jdbcWriteTemplate.update(sql, ps -> {
-            ps.setTimestamp(1, new Timestamp(userNotify.getTimestamp()), Calendar.getInstance());
-            ps.setString(2, userNotify.getUserID());
-            ps.setString(3, userNotify.getNotifyID());
-            ps.setObject(4, data);
-        });
+        Object data = serializeData(userNotify);
+
+        jdbcWriteTemplate.update(INSERT_SQL, ps -> setInsertValues(ps, 0, userNotify, data));
     }
 
     @Override
@@ -165,67 +243,383 @@ public class TimescaleDbUserNotifyDao implements IUserNotifyDao {
         if (!validator.validate(userNotify)) {
             throw new RuntimeException("Invalid data");
         }
-        CompletableFuture<Object> future = new CompletableFuture<>();
-        queue.add(new Pair<>(userNotify, future));
-        return future;
+        return writer.submit(userNotify);
     }
 
     @Override
-    public List<UserNotify> fetchDesc(String userID, Long fromTime) {
-        List<Object> params = Lists.newArrayList(userID);
-        String sql = String.format("SELECT * FROM %s WHERE user_id=?", TABLE_NAME);
-        if (fromTime != null) {
-            sql += " AND timestamp < ?";
-            params.add(new Timestamp(fromTime));
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(writer.getStats());
+        long reads = readCount.sum();
+        stats.put("timescaledb.reads", reads);
+        stats.put("timescaledb.read_cpu_us_per_query", reads == 0 ? 0
+                : String.format("%.1f", readCpuNanos.sum() / 1000.0 / reads));
+        putPoolStats(stats, "timescaledb.write_pool.", jdbcWriteTemplate);
+        putPoolStats(stats, "timescaledb.read_pool.", jdbcReadTemplate);
+        return stats;
+    }
+
+    /**
+     * Write the batch in chunks of at most {@code TIMESCALEDB_BATCH_SIZE} rows, one statement or COPY per chunk. Each
+     * chunk commits on its own, so a failed chunk only fails its own rows and the remaining chunks are still written.
+     */
+    private void writeBatch(List<UserNotify> batch, BatchFailures failures) {
+        int chunkSize = batchSize > 0 ? batchSize : batch.size();
+        for (int from = 0; from < batch.size(); from += chunkSize) {
+            int to = Math.min(batch.size(), from + chunkSize);
+            try {
+                writeChunk(batch.subList(from, to));
+            } catch (Exception e) {
+                logger.error("Exception when write timescaledb chunk: ", e);
+                for (int i = from; i < to; i++) {
+                    failures.fail(i, e);
+                }
+            }
+        }
+    }
+
+    private void writeChunk(List<UserNotify> chunk) throws Exception {
+        switch (writeMode) {
+            case BATCH_INSERT:
+                batchInsert(chunk);
+                break;
+            case MULTI_ROW_INSERT:
+                multiRowInsert(chunk);
+                break;
+            case COPY_TEXT:
+                copy(chunk, false);
+                break;
+            case COPY_BINARY:
+                copy(chunk, true);
+                break;
+        }
+    }
+
+    private void batchInsert(List<UserNotify> chunk) throws JsonProcessingException {
+        List<Object> data = new ArrayList<>(chunk.size());
+        for (UserNotify userNotify : chunk) {
+            data.add(serializeData(userNotify));
+        }
+
+        jdbcWriteTemplate.batchUpdate(INSERT_SQL,
+                new BatchPreparedStatementSetter() {
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        setInsertValues(ps, 0, chunk.get(i), data.get(i));
+                    }
+
+                    public int getBatchSize() {
+                        return chunk.size();
+                    }
+                });
+    }
+
+    private void multiRowInsert(List<UserNotify> chunk) throws JsonProcessingException {
+        List<Object> data = new ArrayList<>(chunk.size());
+        for (UserNotify userNotify : chunk) {
+            data.add(serializeData(userNotify));
         }
-        sql += " ORDER BY timestamp DESC LIMIT 20";
 
-        return jdbcReadTemplate.query(sql, params.toArray(), ROW_MAPPER);
+        jdbcWriteTemplate.update(multiRowInsertSql(chunk.size()), ps -> {
+            for (int i = 0; i < chunk.size(); i++) {
+                setInsertValues(ps, 4 * i, chunk.get(i), data.get(i));
+            }
+        });
+    }
+
+    private String multiRowInsertSql(int rows) {
+        if (rows == batchSize && fullChunkInsertSql != null) {
+            return fullChunkInsertSql;
+        }
+        StringBuilder sql = new StringBuilder(INSERT_SQL.length() + 20 * rows);
+        sql.append(INSERT_SQL);
+        for (int i = 1; i < rows; i++) {
+            sql.append(", (?, ?, ?, ").append(DATA_PLACEHOLDER).append(")");
+        }
+        String result = sql.toString();
+        if (rows == batchSize) {
+            fullChunkInsertSql = result;
+        }
+        return result;
+    }
+
+    private static void setInsertValues(PreparedStatement ps, int offset, UserNotify userNotify, Object data) throws SQLException {
+        ps.setTimestamp(offset + 1, new Timestamp(userNotify.getTimestamp()));
+        if (SCHEMA == Schema.COMPACT) {
+            ps.setLong(offset + 2, Long.parseLong(userNotify.getUserID()));
+            ps.setObject(offset + 3, toUUID(userNotify.getNotifyID()));
+        } else {
+            ps.setString(offset + 2, userNotify.getUserID());
+            ps.setString(offset + 3, userNotify.getNotifyID());
+        }
+        if (BYTEA_PAYLOAD) {
+            ps.setBytes(offset + 4, (byte[]) data);
+        } else {
+            ps.setString(offset + 4, (String) data);
+        }
+    }
+
+    /**
+     * The payload as bound to the data column: the JSON bytes for bytea, the JSON text for jsonb.
+     */
+    private static Object serializeData(UserNotify userNotify) throws JsonProcessingException {
+        return BYTEA_PAYLOAD
+                ? Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData())
+                : Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData());
+    }
+
+    /**
+     * Both are 128 bit values, the ULID bits are stored unchanged as a uuid.
+     */
+    static UUID toUUID(String notifyID) {
+        ULID.Value value = ULID.parseULID(notifyID);
+        return new UUID(value.getMostSignificantBits(), value.getLeastSignificantBits());
+    }
+
+    static String fromUUID(UUID notifyID) {
+        return new ULID.Value(notifyID.getMostSignificantBits(), notifyID.getLeastSignificantBits()).toString();
+    }
+
+    /**
+     * The user id as bound in queries, numeric in the compact schema.
+     */
+    private static Object userKey(String userID) {
+        return SCHEMA == Schema.COMPACT ? (Object) Long.parseLong(userID) : userID;
+    }
+
+    private static Object notifyKey(String notifyID) {
+        return SCHEMA == Schema.COMPACT ? toUUID(notifyID) : notifyID;
+    }
+
+    /**
+     * Stream the chunk through {@code COPY ... FROM STDIN} on the driver's copy API, in the text or the binary format.
+     */
+    private void copy(List<UserNotify> chunk, boolean binary) {
+        jdbcWriteTemplate.execute((ConnectionCallback<Long>) connection -> {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            try {
+                byte[] rows = binary ? encodeCopyBinary(chunk) : encodeCopyText(chunk);
+                CopyIn copyIn = copyManager.copyIn(binary ? COPY_BINARY_SQL : COPY_TEXT_SQL);
+                try {
+                    copyIn.writeToCopy(rows, 0, rows.length);
+                    return copyIn.endCopy();
+                } finally {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                }
+            } catch (IOException e) {
+                throw new SQLException(e);
+            }
+        });
+    }
+
+    static byte[] encodeCopyText(List<UserNotify> chunk) throws IOException {
+        StringBuilder rows = new StringBuilder(chunk.size() * 128);
+        for (UserNotify userNotify : chunk) {
+            rows.append(Instant.ofEpochMilli(userNotify.getTimestamp())).append('\t');
+            if (SCHEMA == Schema.COMPACT) {
+                rows.append(Long.parseLong(userNotify.getUserID())).append('\t');
+                rows.append(toUUID(userNotify.getNotifyID())).append('\t');
+            } else {
+                appendCopyText(rows, userNotify.getUserID()).append('\t');
+                appendCopyText(rows, userNotify.getNotifyID()).append('\t');
+            }
+            if (BYTEA_PAYLOAD) {
+                // bytea hex format, the backslash itself escaped for COPY
+                rows.append("\\\\x").append(BaseEncoding.base16().lowerCase()
+                        .encode(Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData())));
+            } else {
+                appendCopyText(rows, Util.OBJECT_MAPPER.writeValueAsString(userNotify.getData()));
+            }
+            rows.append('\n');
+        }
+        return rows.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static StringBuilder appendCopyText(StringBuilder rows, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    rows.append("\\\\");
+                    break;
+                case '\t':
+                    rows.append("\\t");
+                    break;
+                case '\n':
+                    rows.append("\\n");
+                    break;
+                case '\r':
+                    rows.append("\\r");
+                    break;
+                default:
+                    rows.append(c);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * PostgreSQL binary COPY format: a signature and two empty header fields, then per row the field count and each
+     * field as its length followed by its binary representation, closed by a -1 trailer.
+     */
+    static byte[] encodeCopyBinary(List<UserNotify> chunk) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(chunk.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(COPY_BINARY_SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+
+        for (UserNotify userNotify : chunk) {
+            out.writeShort(4);
+
+            // timestamptz: microseconds since 2000-01-01 UTC
+            out.writeInt(Long.BYTES);
+            out.writeLong((userNotify.getTimestamp() - POSTGRES_EPOCH_MILLIS) * 1000);
+
+            if (SCHEMA == Schema.COMPACT) {
+                out.writeInt(Long.BYTES);
+                out.writeLong(Long.parseLong(userNotify.getUserID()));
+                writeCopyBinaryField(out, ULID.parseULID(userNotify.getNotifyID()).toBytes());
+            } else {
+                writeCopyBinaryField(out, userNotify.getUserID().getBytes(StandardCharsets.UTF_8));
+                writeCopyBinaryField(out, userNotify.getNotifyID().getBytes(StandardCharsets.UTF_8));
+            }
+
+            byte[] data = Util.OBJECT_MAPPER.writeValueAsBytes(userNotify.getData());
+            if (BYTEA_PAYLOAD) {
+                writeCopyBinaryField(out, data);
+            } else {
+                // jsonb: a version byte followed by the JSON text
+                out.writeInt(1 + data.length);
+                out.writeByte(1);
+                out.write(data);
+            }
+        }
+
+        out.writeShort(-1);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeCopyBinaryField(DataOutputStream out, byte[] value) throws IOException {
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchDescAsync(String userID, Long fromTime) {
+        return Util.supplyAsync(() -> fetchDesc(userID, fromTime), readPool);
+    }
+
+    @Override
+    public CompletableFuture<List<UserNotify>> fetchAscAsync(String userID, Long fromTime) {
+        return Util.supplyAsync(() -> fetchAsc(userID, fromTime), readPool);
+    }
+
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Long fromTime) {
+        if (fromTime == null) {
+            return query(FETCH_DESC_SQL, userKey(userID));
+        }
+        return query(FETCH_DESC_FROM_SQL, userKey(userID), new Timestamp(fromTime));
     }
 
     @Override
     public List<UserNotify> fetchAsc(String userID, Long fromTime) {
-        List<Object> params = Lists.newArrayList(userID);
-        String sql = String.format("SELECT * FROM %s WHERE user_id=?", TABLE_NAME);
-        if (fromTime != null) {
-            sql += " AND timestamp > ?";
-            params.add(new Timestamp(fromTime));
+        if (fromTime == null) {
+            return query(FETCH_ASC_SQL, userKey(userID));
         }
-        sql += " ORDER BY timestamp ASC LIMIT 20";
+        return query(FETCH_ASC_FROM_SQL, userKey(userID), new Timestamp(fromTime));
+    }
 
-        return jdbcReadTemplate.query(sql, params.toArray(), ROW_MAPPER);
+    @Override
+    public List<UserNotify> fetchDesc(String userID, Cursor cursor, int pageSize) {
+        if (cursor == null) {
+            return query(SEEK_DESC_SQL, userKey(userID), pageSize);
+        }
+        return query(SEEK_DESC_FROM_SQL, userKey(userID), new Timestamp(cursor.getTimestamp()),
+                notifyKey(cursor.getNotifyID()), pageSize);
+    }
+
+    @Override
+    public List<UserNotify> fetchAsc(String userID, Cursor cursor, int pageSize) {
+        if (cursor == null) {
+            return query(SEEK_ASC_SQL, userKey(userID), pageSize);
+        }
+        return query(SEEK_ASC_FROM_SQL, userKey(userID), new Timestamp(cursor.getTimestamp()),
+                notifyKey(cursor.getNotifyID()), pageSize);
+    }
+
+    /**
+     * Runs a read and accounts the client CPU time it took on the calling thread: binding, decoding and mapping,
+     * the time spent waiting for the server is not included.
+     */
+    private List<UserNotify> query(String sql, Object... params) {
+        long start = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        try {
+            return jdbcReadTemplate.query(sql, params, ROW_MAPPER);
+        } finally {
+            readCpuNanos.add(THREAD_MX_BEAN.getCurrentThreadCpuTime() - start);
+            readCount.increment();
+        }
     }
 
-    private static JdbcTemplate createJdbcTemplate() {
+    private static JdbcTemplate createJdbcTemplate(String name) {
         Settings setting = Settings.getInstance();
 
-        BasicDataSource dataSource = new BasicDataSource();
         String connectionString = String.format("jdbc:postgresql://%s:%d/%s", setting.TIMESCALEDB_IP,
                 setting.TIMESCALEDB_PORT, setting.TIMESCALEDB_DB);
+        Properties properties = new Properties();
+        if (setting.TIMESCALEDB_REWRITE_BATCHED_INSERTS) {
+            // the driver folds each JDBC batch into multi-row INSERT statements
+            properties.setProperty("reWriteBatchedInserts", "true");
+        }
+        // server-side prepared statements, their results come back in the binary format for the listed types
+        properties.setProperty("prepareThreshold", String.valueOf(setting.TIMESCALEDB_PREPARE_THRESHOLD));
+        properties.setProperty("binaryTransfer", String.valueOf(setting.TIMESCALEDB_BINARY_TRANSFER));
+        if (setting.TIMESCALEDB_BINARY_TRANSFER) {
+            properties.setProperty("binaryTransferEnable", "TIMESTAMPTZ,INT8,UUID,BYTEA");
+        }
 
-        dataSource.setDriverClassName(Driver.class.getName());
-        dataSource.setUsername(setting.TIMESCALEDB_USER);
-        dataSource.setPassword(setting.TIMESCALEDB_PASSWORD);
-        dataSource.setUrl(connectionString);
-        dataSource.setInitialSize(0);
-        dataSource.setMaxTotal(setting.TIMESCALEDB_POOL_SIZE);
-
-        dataSource.setTestOnBorrow(true);
-        dataSource.setTestWhileIdle(true);
-        dataSource.setValidationQueryTimeout(3);
-        dataSource.setValidationQuery("SELECT 1");
-
-        dataSource.setMaxConnLifetimeMillis(900000);
-        dataSource.setTimeBetweenEvictionRunsMillis(300000);
-        dataSource.setLogExpiredConnections(false);
+        DataSource dataSource;
+        AutoCloseable closeable;
+        if (PoolType.valueOf(setting.TIMESCALEDB_POOL_TYPE) == PoolType.LIGHTWEIGHT) {
+            properties.setProperty("user", setting.TIMESCALEDB_USER);
+            properties.setProperty("password", setting.TIMESCALEDB_PASSWORD);
+            LightweightDataSource lightweightDataSource = new LightweightDataSource(name, new Driver(),
+                    connectionString, properties, setting.TIMESCALEDB_POOL_SIZE,
+                    setting.TIMESCALEDB_POOL_VALIDATION_IDLE_MS, setting.TIMESCALEDB_POOL_TIMEOUT_MS, MAX_CONN_LIFETIME_MS);
+            dataSource = lightweightDataSource;
+            closeable = lightweightDataSource;
+        } else {
+            BasicDataSource basicDataSource = new BasicDataSource();
+            basicDataSource.setDriverClassName(Driver.class.getName());
+            basicDataSource.setUsername(setting.TIMESCALEDB_USER);
+            basicDataSource.setPassword(setting.TIMESCALEDB_PASSWORD);
+            basicDataSource.setUrl(connectionString);
+            basicDataSource.setInitialSize(0);
+            basicDataSource.setMaxTotal(setting.TIMESCALEDB_POOL_SIZE);
+            properties.forEach((key, value) -> basicDataSource.addConnectionProperty((String) key, (String) value));
+
+            basicDataSource.setTestOnBorrow(true);
+            basicDataSource.setTestWhileIdle(true);
+            basicDataSource.setValidationQueryTimeout(3);
+            basicDataSource.setValidationQuery("SELECT 1");
+
+            basicDataSource.setMaxConnLifetimeMillis(MAX_CONN_LIFETIME_MS);
+            basicDataSource.setTimeBetweenEvictionRunsMillis(300000);
+            basicDataSource.setLogExpiredConnections(false);
+            dataSource = basicDataSource;
+            closeable = basicDataSource::close;
+        }
 
         JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
         jdbcTemplate.setResultsMapCaseInsensitive(false);
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                dataSource.close();
-            } catch (SQLException e) {
+                closeable.close();
+            } catch (Exception e) {
                 logger.error("Error: ", e);
             }
         }));
@@ -233,17 +627,37 @@ public class TimescaleDbUserNotifyDao implements IUserNotifyDao {
         return jdbcTemplate;
     }
 
+    /**
+     * Pool counters of the lightweight pool, the wait times and the Little's law estimate of how many connections
+     * the load actually keeps busy.
+     */
+    private static void putPoolStats(Map<String, Object> stats, String prefix, JdbcTemplate jdbcTemplate) {
+        DataSource dataSource = jdbcTemplate.getDataSource();
+        if (dataSource instanceof LightweightDataSource) {
+            stats.putAll(((LightweightDataSource) dataSource).getStats(prefix));
+        }
+    }
+
+    /**
+     * Reads the columns by index, in the order every query selects them: timestamp, user_id, notify_id, data.
+     */
     private static class UserNotifyRowMapper implements RowMapper<UserNotify> {
 
         @Override
         public UserNotify mapRow(ResultSet rs, int rowNum) throws SQLException {
             UserNotify notification = new UserNotify();
-            notification.setNotifyID(rs.getString("notify_id"));
-            notification.setUserID(rs.getString("user_id"));
-            notification.setTimestamp(rs.getTimestamp("timestamp").getTime());
+            notification.setTimestamp(rs.getTimestamp(1).getTime());
+            if (SCHEMA == Schema.COMPACT) {
+                notification.setUserID(String.valueOf(rs.getLong(2)));
+                notification.setNotifyID(fromUUID(rs.getObject(3, UUID.class)));
+            } else {
+                notification.setUserID(rs.getString(2));
+                notification.setNotifyID(rs.getString(3));
+            }
 
+            // jsonb arrives as its JSON text, both payloads are parsed from the column bytes without a String copy
             try {
-                notification.setData(Util.OBJECT_MAPPER.readValue(rs.getString("data"), ObjectNode.class));
+                notification.setData(Util.OBJECT_MAPPER.readValue(rs.getBytes(4), ObjectNode.class));
             } catch (IOException e) {
                 logger.error("Error when parsing data format");
             }
@@ -253,4 +667,48 @@ public class TimescaleDbUserNotifyDao implements IUserNotifyDao {
 
     }
 
+    private enum Schema {
+        /**
+         * Text user and notify ids, JSONB payload.
+         */
+        TEXT,
+        /**
+         * Numeric user ids as bigint, the notify id ULID as a 16 byte uuid and the payload as
+         * {@code TIMESCALEDB_PAYLOAD}, JSONB or BYTEA. Only numeric user ids can be stored.
+         */
+        COMPACT
+    }
+
+    private enum PoolType {
+        /**
+         * Commons DBCP2, validating every borrowed connection with {@code SELECT 1}.
+         */
+        DBCP,
+        /**
+         * {@link LightweightDataSource}, lock-free handoff and validation only after
+         * {@code TIMESCALEDB_POOL_VALIDATION_IDLE_MS} of idle time.
+         */
+        LIGHTWEIGHT
+    }
+
+    private enum WriteMode {
+        /**
+         * One JDBC batch of single-row INSERT statements, rewritten by the driver with
+         * {@code TIMESCALEDB_REWRITE_BATCHED_INSERTS}.
+         */
+        BATCH_INSERT,
+        /**
+         * One INSERT statement with a VALUES row per notification.
+         */
+        MULTI_ROW_INSERT,
+        /**
+         * COPY FROM STDIN in the text format.
+         */
+        COPY_TEXT,
+        /**
+         * COPY FROM STDIN in the binary format.
+         */
+        COPY_BINARY
+    }
+
 }
@@ -0,0 +1,75 @@
+package io.dogy.dao.impl.hbase;
+
+import com.google.common.hash.Hashing;
+import io.dogy.utility.ULID;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed-width 33 byte keys: a 1 byte salt bucket, the 8 byte murmur3 hash of the user id, the 8 byte big-endian
+ * timestamp, optionally stored as {@code Long.MAX_VALUE - timestamp} so the newest rows come first, and the 16 byte
+ * notify id ULID, which keeps notifications of the same millisecond apart. Reversed keys store the complement of the
+ * ULID as well, so the key order is exactly the reverse of (timestamp, notify id).
+ */
+public class BinaryRowKeyCodec implements IRowKeyCodec {
+
+    private static final int PREFIX_LENGTH = 1 + Long.BYTES + Long.BYTES;
+    private static final int KEY_LENGTH = PREFIX_LENGTH + 16;
+
+    private final int saltBuckets;
+    private final boolean timestampReversed;
+
+    public BinaryRowKeyCodec(int saltBuckets, boolean timestampReversed) {
+        if (saltBuckets < 1 || saltBuckets > 256) {
+            throw new IllegalArgumentException("Salt buckets must be between 1 and 256: " + saltBuckets);
+        }
+        this.saltBuckets = saltBuckets;
+        this.timestampReversed = timestampReversed;
+    }
+
+    @Override
+    public byte[] encode(String userID, long timestamp, String notifyID) {
+        ULID.Value value = ULID.parseULID(notifyID);
+        long msb = value.getMostSignificantBits();
+        long lsb = value.getLeastSignificantBits();
+        return writePrefix(ByteBuffer.allocate(KEY_LENGTH), userID, timestamp)
+                .putLong(timestampReversed ? ~msb : msb)
+                .putLong(timestampReversed ? ~lsb : lsb)
+                .array();
+    }
+
+    @Override
+    public byte[] firstKey(String userID, long timestamp) {
+        // without the notify id suffix the key sorts before every row of that millisecond
+        return writePrefix(ByteBuffer.allocate(PREFIX_LENGTH), userID, timestamp).array();
+    }
+
+    @Override
+    public long decodeTimestamp(byte[] row) {
+        long timestamp = ByteBuffer.wrap(row, 1 + Long.BYTES, Long.BYTES).getLong();
+        return timestampReversed ? Long.MAX_VALUE - timestamp : timestamp;
+    }
+
+    @Override
+    public boolean isTimestampReversed() {
+        return timestampReversed;
+    }
+
+    @Override
+    public byte[][] splitKeys() {
+        byte[][] splitKeys = new byte[saltBuckets - 1][];
+        for (int i = 1; i < saltBuckets; i++) {
+            splitKeys[i - 1] = new byte[]{(byte) i};
+        }
+        return splitKeys;
+    }
+
+    private ByteBuffer writePrefix(ByteBuffer buffer, String userID, long timestamp) {
+        long userHash = Hashing.murmur3_128().hashString(userID, StandardCharsets.UTF_8).asLong();
+        return buffer.put((byte) Math.floorMod(userHash, saltBuckets))
+                .putLong(userHash)
+                .putLong(timestampReversed ? Long.MAX_VALUE - timestamp : timestamp);
+    }
+
+}
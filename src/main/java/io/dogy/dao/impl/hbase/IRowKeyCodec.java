@@ -0,0 +1,35 @@
+package io.dogy.dao.impl.hbase;
+
+import io.dogy.model.UserNotify;
+
+/**
+ * Layout of the HBase row keys. All rows of a user share a prefix and are ordered by timestamp inside it, either
+ * ascending or, when {@link #isTimestampReversed()}, descending.
+ */
+public interface IRowKeyCodec {
+
+    default byte[] encode(UserNotify userNotify) {
+        return encode(userNotify.getUserID(), userNotify.getTimestamp(), userNotify.getNotifyID());
+    }
+
+    /**
+     * The key of a single notification, also used to seek to a pagination cursor.
+     */
+    byte[] encode(String userID, long timestamp, String notifyID);
+
+    /**
+     * The smallest possible key of the user's rows with the given timestamp. Every row of the user with a timestamp
+     * earlier in key order sorts before it, every other row of the user sorts at or after it.
+     */
+    byte[] firstKey(String userID, long timestamp);
+
+    long decodeTimestamp(byte[] row);
+
+    boolean isTimestampReversed();
+
+    /**
+     * Region boundaries to pre-split the table with, one region per salt bucket.
+     */
+    byte[][] splitKeys();
+
+}
@@ -0,0 +1,54 @@
+package io.dogy.dao.impl.hbase;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * The original layout: {@code "<salt>-<userID>:"} followed by the 8 byte timestamp. Notifications of the same user and
+ * millisecond share a row and overwrite each other.
+ */
+public class StringRowKeyCodec implements IRowKeyCodec {
+
+    private final int saltBuckets;
+    private final String saltFormat;
+
+    public StringRowKeyCodec(int saltBuckets) {
+        this.saltBuckets = saltBuckets;
+        this.saltFormat = "%0" + (int) Math.ceil(Math.log10(saltBuckets)) + "d";
+    }
+
+    @Override
+    public byte[] encode(String userID, long timestamp, String notifyID) {
+        return firstKey(userID, timestamp);
+    }
+
+    @Override
+    public byte[] firstKey(String userID, long timestamp) {
+        return ArrayUtils.addAll(Bytes.toBytes(serializeKey(userID) + ":"), Bytes.toBytes(timestamp));
+    }
+
+    @Override
+    public long decodeTimestamp(byte[] row) {
+        return Bytes.toLong(row, row.length - Long.BYTES);
+    }
+
+    @Override
+    public boolean isTimestampReversed() {
+        return false;
+    }
+
+    @Override
+    public byte[][] splitKeys() {
+        byte[][] splitKeys = new byte[saltBuckets - 1][];
+        for (int i = 1; i < saltBuckets; i++) {
+            splitKeys[i - 1] = Bytes.toBytes(String.format(saltFormat, i) + "-");
+        }
+        return splitKeys;
+    }
+
+    public String serializeKey(String originalKey) {
+        int mod = Math.abs(originalKey.hashCode() % saltBuckets);
+        return String.format(saltFormat, mod) + "-" + originalKey;
+    }
+
+}
@@ -0,0 +1,329 @@
+package io.dogy.dao.pool;
+
+import io.dogy.utility.LatencyRecorder;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Minimal connection pool for the benchmark's short read and write statements.
+ * <p>
+ * Idle connections wait in a {@link LinkedTransferQueue}: a returned connection is handed straight to a waiting
+ * borrower, otherwise it is queued, neither path takes a lock. A connection is only validated when it has been idle
+ * for longer than {@code validationIdleMillis}, instead of a {@code SELECT 1} round-trip on every borrow.
+ * <p>
+ * The time every borrow waits is recorded, and the time connections are held is summed. By Little's law the average
+ * number of busy connections is that sum divided by the elapsed time, the pool needs little more than that.
+ */
+public class LightweightDataSource implements DataSource, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LightweightDataSource.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 3;
+
+    private final String name;
+    private final Driver driver;
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final long validationIdleNanos;
+    private final long connectionTimeoutNanos;
+    private final long maxLifetimeNanos;
+
+    private final LinkedTransferQueue<PooledConnection> idle = new LinkedTransferQueue<>();
+    private final AtomicInteger totalCount = new AtomicInteger();
+    private final AtomicBoolean isClosed = new AtomicBoolean();
+
+    private final LatencyRecorder waitLatency = new LatencyRecorder();
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder holdNanos = new LongAdder();
+    private final LongAdder validationCount = new LongAdder();
+    private final AtomicLong firstBorrowNanos = new AtomicLong();
+
+    public LightweightDataSource(String name, Driver driver, String url, Properties properties, int maxSize,
+                                 long validationIdleMillis, long connectionTimeoutMillis, long maxLifetimeMillis) {
+        this.name = name;
+        this.driver = driver;
+        this.url = url;
+        this.properties = properties;
+        this.maxSize = maxSize;
+        this.validationIdleNanos = TimeUnit.MILLISECONDS.toNanos(validationIdleMillis);
+        this.connectionTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectionTimeoutMillis);
+        this.maxLifetimeNanos = TimeUnit.MILLISECONDS.toNanos(maxLifetimeMillis);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        firstBorrowNanos.compareAndSet(0, start);
+        long deadline = start + connectionTimeoutNanos;
+
+        while (true) {
+            if (isClosed.get()) {
+                throw new SQLException(name + " pool is closed");
+            }
+
+            PooledConnection pooled = idle.poll();
+            if (pooled == null) {
+                pooled = tryCreate();
+            }
+            if (pooled == null) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTimeoutException(String.format("%s pool: no connection available within %dms",
+                            name, TimeUnit.NANOSECONDS.toMillis(connectionTimeoutNanos)));
+                }
+                try {
+                    pooled = idle.poll(remaining, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException(name + " pool: interrupted while waiting for a connection", e);
+                }
+                if (pooled == null) {
+                    continue;
+                }
+            }
+
+            long now = System.nanoTime();
+            if (now - pooled.createdNanos > maxLifetimeNanos || !isUsable(pooled, now)) {
+                discard(pooled);
+                continue;
+            }
+
+            waitLatency.record(now - start);
+            borrowCount.increment();
+            return pooled.borrow(now);
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("the pool only hands out connections of its configured user");
+    }
+
+    private PooledConnection tryCreate() throws SQLException {
+        int count;
+        do {
+            count = totalCount.get();
+            if (count >= maxSize) {
+                return null;
+            }
+        } while (!totalCount.compareAndSet(count, count + 1));
+
+        try {
+            return new PooledConnection(driver.connect(url, properties));
+        } catch (SQLException | RuntimeException e) {
+            totalCount.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled, long now) {
+        if (now - pooled.lastUsedNanos <= validationIdleNanos) {
+            return true;
+        }
+
+        validationCount.increment();
+        try {
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        long now = System.nanoTime();
+        holdNanos.add(now - pooled.borrowedNanos);
+        pooled.lastUsedNanos = now;
+
+        try {
+            if (!pooled.connection.isClosed() && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            logger.warn("{} pool: dropping a connection which could not be reset", name, e);
+            discard(pooled);
+            return;
+        }
+
+        if (isClosed.get() || isBroken(pooled)) {
+            discard(pooled);
+        } else {
+            idle.offer(pooled);
+        }
+    }
+
+    private static boolean isBroken(PooledConnection pooled) {
+        try {
+            return pooled.connection.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private void discard(PooledConnection pooled) {
+        totalCount.decrementAndGet();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            logger.debug("{} pool: error when closing a connection", name, e);
+        }
+    }
+
+    /**
+     * @return the wait time percentiles, the connection counts and the average number of busy connections, with
+     * every key prefixed by {@code prefix}
+     */
+    public Map<String, Object> getStats(String prefix) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Histogram waits = waitLatency.snapshot();
+        stats.put(prefix + "connections", totalCount.get());
+        stats.put(prefix + "idle_connections", idle.size());
+        stats.put(prefix + "borrows", borrowCount.sum());
+        stats.put(prefix + "validations", validationCount.sum());
+        stats.put(prefix + "wait_p50", LatencyRecorder.formatNanos(waits.getValueAtPercentile(50)));
+        stats.put(prefix + "wait_p99", LatencyRecorder.formatNanos(waits.getValueAtPercentile(99)));
+        stats.put(prefix + "wait_max", LatencyRecorder.formatNanos(waits.getMaxValue()));
+
+        long first = firstBorrowNanos.get();
+        long elapsed = System.nanoTime() - first;
+        if (first != 0 && elapsed > 0) {
+            // Little's law: busy connections = borrow rate x mean hold time = total hold time / elapsed time
+            double busy = holdNanos.sum() / (double) elapsed;
+            stats.put(prefix + "busy_connections_avg", String.format("%.2f", busy));
+            stats.put(prefix + "suggested_size", Math.max(1, (int) Math.ceil(busy * 1.2)));
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+        if (!isClosed.compareAndSet(false, true)) {
+            return;
+        }
+
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            discard(pooled);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException(getClass().getName() + " does not wrap " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A physical connection and its bookkeeping, only ever touched by the thread which currently owns it.
+     */
+    private final class PooledConnection {
+
+        private final Connection connection;
+        private final long createdNanos;
+        private long lastUsedNanos;
+        private long borrowedNanos;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+            this.createdNanos = System.nanoTime();
+            this.lastUsedNanos = createdNanos;
+        }
+
+        /**
+         * @return a proxy which returns the connection to the pool on {@code close()}, once
+         */
+        private Connection borrow(long now) {
+            borrowedNanos = now;
+            AtomicBoolean isReturned = new AtomicBoolean();
+
+            InvocationHandler handler = (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "close":
+                        if (isReturned.compareAndSet(false, true)) {
+                            release(this);
+                        }
+                        return null;
+                    case "isClosed":
+                        return isReturned.get() || connection.isClosed();
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "toString":
+                        return name + " pooled " + connection;
+                    default:
+                        if (isReturned.get()) {
+                            throw new SQLException("connection has already been returned to the " + name + " pool");
+                        }
+                        return invoke(method, args);
+                }
+            };
+
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, handler);
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package io.dogy.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Comparator;
+
+/**
+ * Position of a notification in a user's timeline, used to fetch the page right after it. Timelines are ordered by
+ * timestamp and then by notify id, so notifications of the same millisecond are neither skipped nor repeated across
+ * pages.
+ * <p>
+ * Clients only see the opaque form returned by {@link #encode()}: the 8 byte timestamp followed by the notify id,
+ * URL-safe base64 encoded.
+ */
+public final class Cursor {
+
+    /**
+     * Timeline order, ascending.
+     */
+    public static final Comparator<UserNotify> ORDER = Comparator.comparingLong(UserNotify::getTimestamp)
+            .thenComparing(UserNotify::getNotifyID);
+
+    private final long timestamp;
+    private final String notifyID;
+
+    public Cursor(long timestamp, String notifyID) {
+        if (notifyID == null) {
+            throw new IllegalArgumentException("Cursor notify id must not be null");
+        }
+        this.timestamp = timestamp;
+        this.notifyID = notifyID;
+    }
+
+    /**
+     * @return the cursor right after {@code userNotify}, usually the last notification of a page
+     */
+    public static Cursor of(UserNotify userNotify) {
+        return new Cursor(userNotify.getTimestamp(), userNotify.getNotifyID());
+    }
+
+    public static Cursor decode(String cursor) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (bytes.length <= Long.BYTES) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long timestamp = buffer.getLong();
+        return new Cursor(timestamp, new String(bytes, Long.BYTES, bytes.length - Long.BYTES, StandardCharsets.UTF_8));
+    }
+
+    public String encode() {
+        byte[] id = notifyID.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = ByteBuffer.allocate(Long.BYTES + id.length).putLong(timestamp).put(id).array();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getNotifyID() {
+        return notifyID;
+    }
+
+    /**
+     * @return whether {@code userNotify} belongs to the pages after this cursor, which are older notifications when
+     * scrolling in descending order and newer ones otherwise
+     */
+    public boolean isBeyond(UserNotify userNotify, boolean desc) {
+        int result = Long.compare(userNotify.getTimestamp(), timestamp);
+        if (result == 0) {
+            result = userNotify.getNotifyID().compareTo(notifyID);
+        }
+        return desc ? result < 0 : result > 0;
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+
+}
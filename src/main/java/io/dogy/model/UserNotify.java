@@ -23,10 +23,14 @@ public class UserNotify {
     private final static ULID ulid = new ULID();
 
     public static UserNotify createDumbObject() {
+        return createDumbObject(System.currentTimeMillis());
+    }
+
+    public static UserNotify createDumbObject(long timestamp) {
         UserNotify userNotify = new UserNotify();
         userNotify.setUserID(String.valueOf(random.nextInt(1000)));
-        userNotify.setNotifyID(ulid.nextULID());
-        userNotify.setTimestamp(System.currentTimeMillis());
+        userNotify.setNotifyID(ulid.nextULID(timestamp));
+        userNotify.setTimestamp(timestamp);
         userNotify.getData().put("foo", "bar");
 
         return userNotify;
@@ -1,16 +1,22 @@
 package io.dogy.service;
 
+import io.dogy.config.Settings;
 import io.dogy.dao.IUserNotifyDao;
+import io.dogy.model.Cursor;
 import io.dogy.model.UserNotify;
+import io.dogy.utility.LatencyRecorder;
 import io.dogy.utility.Util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class BenchmarkService {
 
@@ -24,6 +30,7 @@ public class BenchmarkService {
     private final int numFetchThread;
     private final int numBootstrap;
     private boolean verbose;
+    private double targetRate;
 
     public BenchmarkService(IUserNotifyDao userNotifyDao, int numWriteEpoch, int numWriteThread, int numFetchEpoch, int numFetchThread, int numBootstrap) {
         this.userNotifyDao = userNotifyDao;
@@ -38,6 +45,33 @@ public class BenchmarkService {
         this.verbose = verbose;
     }
 
+    /**
+     * Switch the write and fetch phases to open-loop mode: operations are issued on a fixed schedule of
+     * {@code targetRate} operations per second and latency is measured from the intended send time, so a stalled
+     * backend is charged for every request it delays. A rate of 0 keeps the closed-loop behaviour. The ramp-up
+     * phases pace their fetches over a fixed duration and ignore the rate.
+     *
+     * @param targetRate operations per second
+     */
+    public void setTargetRate(double targetRate) {
+        this.targetRate = targetRate;
+    }
+
+    private boolean isOpenLoop() {
+        return targetRate > 0;
+    }
+
+    /**
+     * Phases which pace their own operations run closed-loop whatever the target rate, say so instead of silently
+     * reporting closed-loop numbers under an open-loop run.
+     */
+    private void logRateIgnored(String phase) {
+        if (isOpenLoop()) {
+            logger.info(String.format("--rate %.0f/s only applies to the steady-state phases, %s ignores it",
+                    targetRate, phase));
+        }
+    }
+
     public void bootstrap() throws Exception {
         this.userNotifyDao.flushDB();
         if (this.numBootstrap <= 0) {
@@ -51,12 +85,7 @@ public class BenchmarkService {
                 try {
                     userNotifyDao.insert(UserNotify.createDumbObject());
                 } catch (Exception e) {
-                    if (verbose) {
-                        logger.error("Error when insert: ", e);
-                    } else {
-                        logger.debug("Error when insert: ", e);
-                        hasError.set(true);
-                    }
+                    onError("Error when insert: ", e, hasError);
                 }
             });
         }
@@ -74,28 +103,42 @@ public class BenchmarkService {
         ExecutorService executorService = Executors.newFixedThreadPool(numWriteThread);
         AtomicInteger leftCount = new AtomicInteger(numWriteEpoch);
 
-        long startTime = System.currentTimeMillis();
-        for (int i = 0; i < numWriteThread; i++) {
-            executorService.submit(() -> {
-                while (leftCount.getAndDecrement() > 0) {
-                    try {
-                        userNotifyDao.insert(UserNotify.createDumbObject());
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
-                        } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
-                        }
-                    }
+        LatencyRecorder insertLatency = new LatencyRecorder();
+
+        long startTime = System.nanoTime();
+        if (isOpenLoop()) {
+            runOpenLoop(executorService, numWriteThread, numWriteEpoch, intendedTime -> {
+                try {
+                    userNotifyDao.insert(UserNotify.createDumbObject());
+                    insertLatency.recordSince(intendedTime);
+                } catch (Exception e) {
+                    onError("Error when insert: ", e, hasError);
                 }
             });
+        } else {
+            for (int i = 0; i < numWriteThread; i++) {
+                executorService.submit(() -> {
+                    while (leftCount.getAndDecrement() > 0) {
+                        try {
+                            UserNotify userNotify = UserNotify.createDumbObject();
+                            long temp = System.nanoTime();
+                            userNotifyDao.insert(userNotify);
+                            insertLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when insert: ", e, hasError);
+                        }
+                    }
+                });
+            }
         }
 
         executorService.shutdown();
         executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Elapsed time insert: " + Util.formatDuration(System.currentTimeMillis() - startTime));
+        long elapsed = System.nanoTime() - startTime;
+        logger.info("Elapsed time insert: " + Util.formatDuration(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        report(phaseName("insert"), insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when insert. Check log files for more details!");
         }
@@ -106,28 +149,52 @@ public class BenchmarkService {
         ExecutorService executorService = Executors.newFixedThreadPool(numWriteThread);
         AtomicInteger leftCount = new AtomicInteger(numWriteEpoch);
 
-        long startTime = System.currentTimeMillis();
-        for (int i = 0; i < numWriteThread; i++) {
-            executorService.submit(() -> {
-                while (leftCount.getAndDecrement() > 0) {
-                    try {
-                        userNotifyDao.insertAsync(UserNotify.createDumbObject()).get();
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
+        LatencyRecorder insertLatency = new LatencyRecorder();
+
+        long startTime = System.nanoTime();
+        if (isOpenLoop()) {
+            // the scheduler threads never wait for the backend, completions are recorded by the callbacks
+            CountDownLatch completed = new CountDownLatch(numWriteEpoch);
+            runOpenLoop(executorService, numWriteThread, numWriteEpoch, intendedTime -> {
+                try {
+                    userNotifyDao.insertAsync(UserNotify.createDumbObject()).whenComplete((result, e) -> {
+                        if (e == null) {
+                            insertLatency.recordSince(intendedTime);
                         } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
+                            onError("Error when insert: ", e, hasError);
                         }
-                    }
+                        completed.countDown();
+                    });
+                } catch (Exception e) {
+                    onError("Error when insert: ", e, hasError);
+                    completed.countDown();
                 }
             });
+            completed.await();
+        } else {
+            for (int i = 0; i < numWriteThread; i++) {
+                executorService.submit(() -> {
+                    while (leftCount.getAndDecrement() > 0) {
+                        try {
+                            UserNotify userNotify = UserNotify.createDumbObject();
+                            long temp = System.nanoTime();
+                            userNotifyDao.insertAsync(userNotify).get();
+                            insertLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when insert: ", e, hasError);
+                        }
+                    }
+                });
+            }
         }
 
         executorService.shutdown();
         executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Elapsed time insert bulk: " + Util.formatDuration(System.currentTimeMillis() - startTime));
+        long elapsed = System.nanoTime() - startTime;
+        logger.info("Elapsed time insert bulk: " + Util.formatDuration(TimeUnit.NANOSECONDS.toMillis(elapsed)));
+        report(phaseName("insertAsync"), insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when insert. Check log files for more details!");
         }
@@ -135,9 +202,13 @@ public class BenchmarkService {
 
     public void benchmarkFetchAsc(long minTime, long maxTime) throws InterruptedException {
         AtomicBoolean hasError = new AtomicBoolean(false);
-        ExecutorService fetchExecutorService = Executors.newFixedThreadPool(numFetchThread);
+        // in open-loop mode the first fetch and fetch more schedules overlap, each needs its own threads
+        ExecutorService fetchExecutorService = Executors.newFixedThreadPool(isOpenLoop() ? 2 * numFetchThread : numFetchThread);
         AtomicInteger leftCount = new AtomicInteger(2 * numFetchEpoch);
 
+        LatencyRecorder insertLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
         ExecutorService writeExecutorService = Executors.newFixedThreadPool(numWriteThread);
         for (int i = 0; i < numWriteThread; i++) {
             writeExecutorService.submit(() -> {
@@ -146,68 +217,81 @@ public class BenchmarkService {
                         if (leftCount.get() % 100 == 0) {
                             Thread.sleep(10);
                         }
-                        userNotifyDao.insertAsync(UserNotify.createDumbObject()).get();
+                        UserNotify userNotify = UserNotify.createDumbObject();
+                        long temp = System.nanoTime();
+                        userNotifyDao.insertAsync(userNotify).get();
+                        insertLatency.recordSince(temp);
                     } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
-                        } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
-                        }
+                        onError("Error when insert: ", e, hasError);
                     }
                 }
             });
         }
 
-        AtomicLong totalFirstFetchTime = new AtomicLong(0);
-        AtomicLong totalFetchMoreTime = new AtomicLong(0);
-
-        {
-            AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
-            while (readCount.getAndDecrement() > 0) {
-                fetchExecutorService.submit(() -> {
-                    try {
-                        String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                        long temp = System.currentTimeMillis();
-                        userNotifyDao.fetchAsc(userID, null);
+        LatencyRecorder firstFetchLatency = new LatencyRecorder();
+        LatencyRecorder fetchMoreLatency = new LatencyRecorder();
 
-                        totalFirstFetchTime.addAndGet(System.currentTimeMillis() - temp);
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when fetch: ", e);
-                        } else {
-                            logger.debug("Error when fetch: ", e);
-                            hasError.set(true);
+        if (isOpenLoop()) {
+            runOpenLoop(fetchExecutorService, numFetchThread, numFetchEpoch, intendedTime -> {
+                try {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    userNotifyDao.fetchAsc(userID, null);
+                    firstFetchLatency.recordSince(intendedTime);
+                } catch (Exception e) {
+                    onError("Error when fetch: ", e, hasError);
+                } finally {
+                    leftCount.decrementAndGet();
+                }
+            });
+            Thread.sleep(500);
+            runOpenLoop(fetchExecutorService, numFetchThread, numFetchEpoch, intendedTime -> {
+                try {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
+                    userNotifyDao.fetchAsc(userID, fromTime);
+                    fetchMoreLatency.recordSince(intendedTime);
+                } catch (Exception e) {
+                    onError("Error when fetch: ", e, hasError);
+                } finally {
+                    leftCount.decrementAndGet();
+                }
+            });
+        } else {
+            {
+                AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
+                while (readCount.getAndDecrement() > 0) {
+                    fetchExecutorService.submit(() -> {
+                        try {
+                            String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                            long temp = System.nanoTime();
+                            userNotifyDao.fetchAsc(userID, null);
+                            firstFetchLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when fetch: ", e, hasError);
+                        } finally {
+                            leftCount.decrementAndGet();
                         }
-                    } finally {
-                        leftCount.decrementAndGet();
-                    }
-                });
+                    });
+                }
             }
-        }
-        Thread.sleep(500);
-        {
-            AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
-            while (readCount.getAndDecrement() > 0) {
-                fetchExecutorService.submit(() -> {
-                    try {
-                        String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                        long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
-                        long temp = System.currentTimeMillis();
-                        userNotifyDao.fetchAsc(userID, fromTime);
-
-                        totalFetchMoreTime.addAndGet(System.currentTimeMillis() - temp);
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when fetch: ", e);
-                        } else {
-                            logger.debug("Error when fetch: ", e);
-                            hasError.set(true);
+            Thread.sleep(500);
+            {
+                AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
+                while (readCount.getAndDecrement() > 0) {
+                    fetchExecutorService.submit(() -> {
+                        try {
+                            String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                            long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
+                            long temp = System.nanoTime();
+                            userNotifyDao.fetchAsc(userID, fromTime);
+                            fetchMoreLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when fetch: ", e, hasError);
+                        } finally {
+                            leftCount.decrementAndGet();
                         }
-                    } finally {
-                        leftCount.decrementAndGet();
-                    }
-                });
+                    });
+                }
             }
         }
 
@@ -217,8 +301,11 @@ public class BenchmarkService {
         writeExecutorService.shutdown();
         writeExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Avg time simultaneous first fetch asc: " + Util.formatDuration(totalFirstFetchTime.get() / numFetchEpoch));
-        logger.info("Avg time simultaneous fetch more asc: " + Util.formatDuration(totalFetchMoreTime.get() / numFetchEpoch));
+        long elapsed = System.nanoTime() - startTime;
+        report(phaseName("simultaneous first fetch asc"), firstFetchLatency, elapsed);
+        report(phaseName("simultaneous fetch more asc"), fetchMoreLatency, elapsed);
+        report("simultaneous insertAsync (fetch asc)", insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when fetch asc. Check log files for more details!");
         }
@@ -226,9 +313,13 @@ public class BenchmarkService {
 
     public void benchmarkFetchDesc(long minTime, long maxTime) throws InterruptedException {
         AtomicBoolean hasError = new AtomicBoolean(false);
-        ExecutorService fetchExecutorService = Executors.newFixedThreadPool(numFetchThread);
+        // in open-loop mode the first fetch and fetch more schedules overlap, each needs its own threads
+        ExecutorService fetchExecutorService = Executors.newFixedThreadPool(isOpenLoop() ? 2 * numFetchThread : numFetchThread);
         AtomicInteger leftCount = new AtomicInteger(2 * numFetchEpoch);
 
+        LatencyRecorder insertLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
         ExecutorService writeExecutorService = Executors.newFixedThreadPool(numWriteThread);
         for (int i = 0; i < numWriteThread; i++) {
             writeExecutorService.submit(() -> {
@@ -237,68 +328,81 @@ public class BenchmarkService {
                         if (leftCount.get() % 100 == 0) {
                             Thread.sleep(10);
                         }
-                        userNotifyDao.insertAsync(UserNotify.createDumbObject()).get();
+                        UserNotify userNotify = UserNotify.createDumbObject();
+                        long temp = System.nanoTime();
+                        userNotifyDao.insertAsync(userNotify).get();
+                        insertLatency.recordSince(temp);
                     } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
-                        } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
-                        }
+                        onError("Error when insert: ", e, hasError);
                     }
                 }
             });
         }
 
-        AtomicLong totalFirstFetchTime = new AtomicLong(0);
-        AtomicLong totalFetchMoreTime = new AtomicLong(0);
-
-        {
-            AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
-            while (readCount.getAndDecrement() > 0) {
-                fetchExecutorService.submit(() -> {
-                    try {
-                        String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                        long temp = System.currentTimeMillis();
-                        userNotifyDao.fetchDesc(userID, null);
+        LatencyRecorder firstFetchLatency = new LatencyRecorder();
+        LatencyRecorder fetchMoreLatency = new LatencyRecorder();
 
-                        totalFirstFetchTime.addAndGet(System.currentTimeMillis() - temp);
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when fetch: ", e);
-                        } else {
-                            logger.debug("Error when fetch: ", e);
-                            hasError.set(true);
+        if (isOpenLoop()) {
+            runOpenLoop(fetchExecutorService, numFetchThread, numFetchEpoch, intendedTime -> {
+                try {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    userNotifyDao.fetchDesc(userID, null);
+                    firstFetchLatency.recordSince(intendedTime);
+                } catch (Exception e) {
+                    onError("Error when fetch: ", e, hasError);
+                } finally {
+                    leftCount.decrementAndGet();
+                }
+            });
+            Thread.sleep(500);
+            runOpenLoop(fetchExecutorService, numFetchThread, numFetchEpoch, intendedTime -> {
+                try {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
+                    userNotifyDao.fetchDesc(userID, fromTime);
+                    fetchMoreLatency.recordSince(intendedTime);
+                } catch (Exception e) {
+                    onError("Error when fetch: ", e, hasError);
+                } finally {
+                    leftCount.decrementAndGet();
+                }
+            });
+        } else {
+            {
+                AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
+                while (readCount.getAndDecrement() > 0) {
+                    fetchExecutorService.submit(() -> {
+                        try {
+                            String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                            long temp = System.nanoTime();
+                            userNotifyDao.fetchDesc(userID, null);
+                            firstFetchLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when fetch: ", e, hasError);
+                        } finally {
+                            leftCount.decrementAndGet();
                         }
-                    } finally {
-                        leftCount.decrementAndGet();
-                    }
-                });
+                    });
+                }
             }
-        }
-        Thread.sleep(500);
-        {
-            AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
-            while (readCount.getAndDecrement() > 0) {
-                fetchExecutorService.submit(() -> {
-                    try {
-                        String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                        long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
-                        long temp = System.currentTimeMillis();
-                        userNotifyDao.fetchDesc(userID, fromTime);
-
-                        totalFetchMoreTime.addAndGet(System.currentTimeMillis() - temp);
-                    } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when fetch: ", e);
-                        } else {
-                            logger.debug("Error when fetch: ", e);
-                            hasError.set(true);
+            Thread.sleep(500);
+            {
+                AtomicInteger readCount = new AtomicInteger(numFetchEpoch);
+                while (readCount.getAndDecrement() > 0) {
+                    fetchExecutorService.submit(() -> {
+                        try {
+                            String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                            long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
+                            long temp = System.nanoTime();
+                            userNotifyDao.fetchDesc(userID, fromTime);
+                            fetchMoreLatency.recordSince(temp);
+                        } catch (Exception e) {
+                            onError("Error when fetch: ", e, hasError);
+                        } finally {
+                            leftCount.decrementAndGet();
                         }
-                    } finally {
-                        leftCount.decrementAndGet();
-                    }
-                });
+                    });
+                }
             }
         }
 
@@ -308,8 +412,11 @@ public class BenchmarkService {
         writeExecutorService.shutdown();
         writeExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Avg time simultaneous first fetch desc: " + Util.formatDuration(totalFirstFetchTime.get() / numFetchEpoch));
-        logger.info("Avg time simultaneous fetch more desc: " + Util.formatDuration(totalFetchMoreTime.get() / numFetchEpoch));
+        long elapsed = System.nanoTime() - startTime;
+        report(phaseName("simultaneous first fetch desc"), firstFetchLatency, elapsed);
+        report(phaseName("simultaneous fetch more desc"), fetchMoreLatency, elapsed);
+        report("simultaneous insertAsync (fetch desc)", insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when fetch desc. Check log files for more details!");
         }
@@ -317,9 +424,13 @@ public class BenchmarkService {
 
     public void benchmarkFetchAscRampUp(int seconds, long minTime, long maxTime) throws InterruptedException {
         AtomicBoolean hasError = new AtomicBoolean(false);
+        logRateIgnored("ramp-up fetch asc");
         ExecutorService fetchExecutorService = Executors.newFixedThreadPool(numFetchThread);
         AtomicInteger leftCount = new AtomicInteger(2 * numFetchEpoch);
 
+        LatencyRecorder insertLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
         ExecutorService writeExecutorService = Executors.newFixedThreadPool(numWriteThread);
         for (int i = 0; i < numWriteThread; i++) {
             writeExecutorService.submit(() -> {
@@ -328,21 +439,19 @@ public class BenchmarkService {
                         if (leftCount.get() % 100 == 0) {
                             Thread.sleep(10);
                         }
-                        userNotifyDao.insertAsync(UserNotify.createDumbObject()).get();
+                        UserNotify userNotify = UserNotify.createDumbObject();
+                        long temp = System.nanoTime();
+                        userNotifyDao.insertAsync(userNotify).get();
+                        insertLatency.recordSince(temp);
                     } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
-                        } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
-                        }
+                        onError("Error when insert: ", e, hasError);
                     }
                 }
             });
         }
 
-        AtomicLong totalFirstFetchTime = new AtomicLong(0);
-        AtomicLong totalFetchMoreTime = new AtomicLong(0);
+        LatencyRecorder firstFetchLatency = new LatencyRecorder();
+        LatencyRecorder fetchMoreLatency = new LatencyRecorder();
 
         for (int i = 0; i < numFetchThread; i++) {
             final AtomicInteger count = new AtomicInteger(numFetchEpoch / numFetchThread);
@@ -356,16 +465,11 @@ public class BenchmarkService {
                         CompletableFuture.runAsync(() -> {
                             try {
                                 String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                                long temp = System.currentTimeMillis();
+                                long temp = System.nanoTime();
                                 userNotifyDao.fetchAsc(userID, null);
-                                totalFirstFetchTime.addAndGet(System.currentTimeMillis() - temp);
+                                firstFetchLatency.recordSince(temp);
                             } catch (Exception e) {
-                                if (verbose) {
-                                    logger.error("Error when fetch: ", e);
-                                } else {
-                                    logger.debug("Error when fetch: ", e);
-                                    hasError.set(true);
-                                }
+                                onError("Error when fetch: ", e, hasError);
                             } finally {
                                 leftCount.getAndDecrement();
                             }
@@ -390,17 +494,11 @@ public class BenchmarkService {
                             try {
                                 String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
                                 long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
-                                long temp = System.currentTimeMillis();
+                                long temp = System.nanoTime();
                                 userNotifyDao.fetchAsc(userID, fromTime);
-
-                                totalFetchMoreTime.addAndGet(System.currentTimeMillis() - temp);
+                                fetchMoreLatency.recordSince(temp);
                             } catch (Exception e) {
-                                if (verbose) {
-                                    logger.error("Error when fetch: ", e);
-                                } else {
-                                    logger.debug("Error when fetch: ", e);
-                                    hasError.set(true);
-                                }
+                                onError("Error when fetch: ", e, hasError);
                             } finally {
                                 leftCount.getAndDecrement();
                             }
@@ -418,8 +516,11 @@ public class BenchmarkService {
         writeExecutorService.shutdown();
         writeExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Avg time RAMP first fetch asc: " + Util.formatDuration(totalFirstFetchTime.get() / numFetchEpoch));
-        logger.info("Avg time RAMP fetch more asc: " + Util.formatDuration(totalFetchMoreTime.get() / numFetchEpoch));
+        long elapsed = System.nanoTime() - startTime;
+        report("RAMP first fetch asc", firstFetchLatency, elapsed);
+        report("RAMP fetch more asc", fetchMoreLatency, elapsed);
+        report("RAMP insertAsync (fetch asc)", insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when fetch asc. Check log files for more details!");
         }
@@ -427,9 +528,13 @@ public class BenchmarkService {
 
     public void benchmarkFetchDescRampUp(int seconds, long minTime, long maxTime) throws InterruptedException {
         AtomicBoolean hasError = new AtomicBoolean(false);
+        logRateIgnored("ramp-up fetch desc");
         ExecutorService fetchExecutorService = Executors.newFixedThreadPool(numFetchThread);
         AtomicInteger leftCount = new AtomicInteger(2 * numFetchEpoch);
 
+        LatencyRecorder insertLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
         ExecutorService writeExecutorService = Executors.newFixedThreadPool(numWriteThread);
         for (int i = 0; i < numWriteThread; i++) {
             writeExecutorService.submit(() -> {
@@ -438,21 +543,19 @@ public class BenchmarkService {
                         if (leftCount.get() % 100 == 0) {
                             Thread.sleep(10);
                         }
-                        userNotifyDao.insertAsync(UserNotify.createDumbObject()).get();
+                        UserNotify userNotify = UserNotify.createDumbObject();
+                        long temp = System.nanoTime();
+                        userNotifyDao.insertAsync(userNotify).get();
+                        insertLatency.recordSince(temp);
                     } catch (Exception e) {
-                        if (verbose) {
-                            logger.error("Error when insert: ", e);
-                        } else {
-                            logger.debug("Error when insert: ", e);
-                            hasError.set(true);
-                        }
+                        onError("Error when insert: ", e, hasError);
                     }
                 }
             });
         }
 
-        AtomicLong totalFirstFetchTime = new AtomicLong(0);
-        AtomicLong totalFetchMoreTime = new AtomicLong(0);
+        LatencyRecorder firstFetchLatency = new LatencyRecorder();
+        LatencyRecorder fetchMoreLatency = new LatencyRecorder();
 
         for (int i = 0; i < numFetchThread; i++) {
             final AtomicInteger count = new AtomicInteger(numFetchEpoch / numFetchThread);
@@ -466,16 +569,11 @@ public class BenchmarkService {
                         CompletableFuture.runAsync(() -> {
                             try {
                                 String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
-                                long temp = System.currentTimeMillis();
+                                long temp = System.nanoTime();
                                 userNotifyDao.fetchDesc(userID, null);
-                                totalFirstFetchTime.addAndGet(System.currentTimeMillis() - temp);
+                                firstFetchLatency.recordSince(temp);
                             } catch (Exception e) {
-                                if (verbose) {
-                                    logger.error("Error when fetch: ", e);
-                                } else {
-                                    logger.debug("Error when fetch: ", e);
-                                    hasError.set(true);
-                                }
+                                onError("Error when fetch: ", e, hasError);
                             } finally {
                                 leftCount.getAndDecrement();
                             }
@@ -500,17 +598,11 @@ public class BenchmarkService {
                             try {
                                 String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
                                 long fromTime = ThreadLocalRandom.current().nextLong(minTime, maxTime);
-                                long temp = System.currentTimeMillis();
+                                long temp = System.nanoTime();
                                 userNotifyDao.fetchDesc(userID, fromTime);
-
-                                totalFetchMoreTime.addAndGet(System.currentTimeMillis() - temp);
+                                fetchMoreLatency.recordSince(temp);
                             } catch (Exception e) {
-                                if (verbose) {
-                                    logger.error("Error when fetch: ", e);
-                                } else {
-                                    logger.debug("Error when fetch: ", e);
-                                    hasError.set(true);
-                                }
+                                onError("Error when fetch: ", e, hasError);
                             } finally {
                                 leftCount.getAndDecrement();
                             }
@@ -528,11 +620,260 @@ public class BenchmarkService {
         writeExecutorService.shutdown();
         writeExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
 
-        logger.info("Avg time RAMP first fetch desc: " + Util.formatDuration(totalFirstFetchTime.get() / numFetchEpoch));
-        logger.info("Avg time RAMP fetch more desc: " + Util.formatDuration(totalFetchMoreTime.get() / numFetchEpoch));
+        long elapsed = System.nanoTime() - startTime;
+        report("RAMP first fetch desc", firstFetchLatency, elapsed);
+        report("RAMP fetch more desc", fetchMoreLatency, elapsed);
+        report("RAMP insertAsync (fetch desc)", insertLatency, elapsed);
+        reportStats();
         if (hasError.get()) {
             logger.info("Has error when fetch desc. Check log files for more details!");
         }
     }
 
+    /**
+     * Write {@code numWriteEpoch} notifications with timestamps spread over the last two TTL periods, so about half of
+     * them have already expired, then measure reads while the expired data is still stored and again after the
+     * backend has compacted it away.
+     */
+    public void benchmarkRetention() throws Exception {
+        AtomicBoolean hasError = new AtomicBoolean(false);
+        ExecutorService executorService = Executors.newFixedThreadPool(numWriteThread);
+        AtomicInteger leftCount = new AtomicInteger(numWriteEpoch);
+        long ttlMillis = Settings.getInstance().TTL_IN_SECONDS * 1000L;
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < numWriteThread; i++) {
+            executorService.submit(() -> {
+                while (leftCount.getAndDecrement() > 0) {
+                    try {
+                        long timestamp = now - ThreadLocalRandom.current().nextLong(2 * ttlMillis);
+                        userNotifyDao.insertAsync(UserNotify.createDumbObject(timestamp)).get();
+                    } catch (Exception e) {
+                        onError("Error when insert: ", e, hasError);
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        benchmarkRetentionFetch("before compaction", hasError);
+
+        long startTime = System.nanoTime();
+        userNotifyDao.compact();
+        logger.info("Elapsed time compact: " + Util.formatDuration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
+
+        benchmarkRetentionFetch("after compaction", hasError);
+        if (hasError.get()) {
+            logger.info("Has error when benchmark retention. Check log files for more details!");
+        }
+    }
+
+    private void benchmarkRetentionFetch(String stage, AtomicBoolean hasError) throws InterruptedException {
+        ExecutorService executorService = Executors.newFixedThreadPool(numFetchThread);
+        AtomicInteger leftCount = new AtomicInteger(numFetchEpoch);
+
+        LatencyRecorder fetchAscLatency = new LatencyRecorder();
+        LatencyRecorder fetchDescLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < numFetchThread; i++) {
+            executorService.submit(() -> {
+                while (leftCount.getAndDecrement() > 0) {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    try {
+                        long temp = System.nanoTime();
+                        userNotifyDao.fetchAsc(userID, null);
+                        fetchAscLatency.recordSince(temp);
+
+                        temp = System.nanoTime();
+                        userNotifyDao.fetchDesc(userID, null);
+                        fetchDescLatency.recordSince(temp);
+                    } catch (Exception e) {
+                        onError("Error when fetch: ", e, hasError);
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        long elapsed = System.nanoTime() - startTime;
+        report("retention first fetch asc " + stage, fetchAscLatency, elapsed);
+        report("retention first fetch desc " + stage, fetchDescLatency, elapsed);
+        reportStats();
+    }
+
+    /**
+     * Infinite-scroll reads: each of the {@code numFetchEpoch} operations starts at the newest page of a random user
+     * and follows the cursors up to {@code depth} pages deep. With keyset pagination the later pages should cost about
+     * as much as the first one.
+     */
+    public void benchmarkScroll(int depth) throws InterruptedException {
+        AtomicBoolean hasError = new AtomicBoolean(false);
+        ExecutorService executorService = Executors.newFixedThreadPool(numFetchThread);
+        AtomicInteger leftCount = new AtomicInteger(numFetchEpoch);
+        int pageSize = Settings.getInstance().PAGE_SIZE;
+
+        LatencyRecorder firstPageLatency = new LatencyRecorder();
+        LatencyRecorder nextPageLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < numFetchThread; i++) {
+            executorService.submit(() -> {
+                while (leftCount.getAndDecrement() > 0) {
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    try {
+                        String cursor = null;
+                        for (int page = 0; page < depth; page++) {
+                            long temp = System.nanoTime();
+                            List<UserNotify> results = userNotifyDao.fetchDesc(userID,
+                                    cursor == null ? null : Cursor.decode(cursor), pageSize);
+                            (page == 0 ? firstPageLatency : nextPageLatency).recordSince(temp);
+                            if (results.size() < pageSize) {
+                                break;
+                            }
+                            // a client only ever holds the opaque form of the cursor
+                            cursor = Cursor.of(results.get(results.size() - 1)).encode();
+                        }
+                    } catch (Exception e) {
+                        onError("Error when scroll: ", e, hasError);
+                    }
+                }
+            });
+        }
+        executorService.shutdown();
+        executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        long elapsed = System.nanoTime() - startTime;
+        report("scroll first page", firstPageLatency, elapsed);
+        report(String.format("scroll next pages (up to %d deep)", depth), nextPageLatency, elapsed);
+        reportStats();
+        if (hasError.get()) {
+            logger.info("Has error when scroll. Check log files for more details!");
+        }
+    }
+
+    /**
+     * Drive the async read API: {@code numFetchThread} threads issue {@code numFetchEpoch} first fetches and as many
+     * fetch more without waiting for the results, keeping up to {@code maxInFlight} reads outstanding. Latency is
+     * measured from issuing the read to the completion of its future.
+     */
+    public void benchmarkFetchAsync(boolean desc, int maxInFlight, long minTime, long maxTime) throws InterruptedException {
+        AtomicBoolean hasError = new AtomicBoolean(false);
+        ExecutorService fetchExecutorService = Executors.newFixedThreadPool(numFetchThread);
+        AtomicInteger leftCount = new AtomicInteger(2 * numFetchEpoch);
+        CountDownLatch completed = new CountDownLatch(2 * numFetchEpoch);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+
+        LatencyRecorder firstFetchLatency = new LatencyRecorder();
+        LatencyRecorder fetchMoreLatency = new LatencyRecorder();
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < numFetchThread; i++) {
+            fetchExecutorService.submit(() -> {
+                int count;
+                while ((count = leftCount.decrementAndGet()) >= 0) {
+                    boolean firstFetch = count % 2 == 0;
+                    String userID = String.valueOf(ThreadLocalRandom.current().nextLong(1000));
+                    Long fromTime = firstFetch ? null : ThreadLocalRandom.current().nextLong(minTime, maxTime);
+                    LatencyRecorder recorder = firstFetch ? firstFetchLatency : fetchMoreLatency;
+
+                    inFlight.acquireUninterruptibly();
+                    long temp = System.nanoTime();
+                    CompletableFuture<List<UserNotify>> future;
+                    try {
+                        future = desc
+                                ? userNotifyDao.fetchDescAsync(userID, fromTime)
+                                : userNotifyDao.fetchAscAsync(userID, fromTime);
+                    } catch (Exception e) {
+                        // no future to complete, give the permit and the count back here
+                        onError("Error when fetch: ", e, hasError);
+                        inFlight.release();
+                        completed.countDown();
+                        continue;
+                    }
+                    future.whenComplete((result, e) -> {
+                        if (e == null) {
+                            recorder.recordSince(temp);
+                        } else {
+                            onError("Error when fetch: ", e, hasError);
+                        }
+                        inFlight.release();
+                        completed.countDown();
+                    });
+                }
+            });
+        }
+
+        completed.await();
+        fetchExecutorService.shutdown();
+        fetchExecutorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        long elapsed = System.nanoTime() - startTime;
+        String direction = desc ? "desc" : "asc";
+        report(String.format("async first fetch %s (%d in flight)", direction, maxInFlight), firstFetchLatency, elapsed);
+        report(String.format("async fetch more %s (%d in flight)", direction, maxInFlight), fetchMoreLatency, elapsed);
+        reportStats();
+        if (hasError.get()) {
+            logger.info("Has error when async fetch " + direction + ". Check log files for more details!");
+        }
+    }
+
+    /**
+     * Issue {@code numOps} operations at {@link #targetRate} operations per second. Operation {@code i} is due at
+     * {@code start + i / targetRate}; the workers wait for that instant and hand it to the operation, which measures
+     * its latency from the intended time rather than from the moment a worker became free to send it.
+     * The workers are submitted to {@code executorService} and this method returns without waiting for them.
+     */
+    private void runOpenLoop(ExecutorService executorService, int numThreads, int numOps, ScheduledOperation operation) {
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / targetRate);
+        long startTime = System.nanoTime();
+        AtomicLong sequence = new AtomicLong(0);
+
+        for (int i = 0; i < numThreads; i++) {
+            executorService.submit(() -> {
+                long index;
+                while ((index = sequence.getAndIncrement()) < numOps) {
+                    long intendedTime = startTime + index * intervalNanos;
+                    long delay;
+                    while ((delay = intendedTime - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                    operation.run(intendedTime);
+                }
+            });
+        }
+    }
+
+    private void onError(String message, Throwable e, AtomicBoolean hasError) {
+        if (verbose) {
+            logger.error(message, e);
+        } else {
+            logger.debug(message, e);
+            hasError.set(true);
+        }
+    }
+
+    private String phaseName(String phase) {
+        return isOpenLoop() ? String.format("%s (open-loop %.0f/s)", phase, targetRate) : phase;
+    }
+
+    private void report(String phase, LatencyRecorder recorder, long elapsedNanos) {
+        logger.info("Latency " + phase + ": " + recorder.summary(elapsedNanos));
+    }
+
+    private void reportStats() {
+        for (Map.Entry<String, Object> stat : userNotifyDao.getStats().entrySet()) {
+            logger.info("Stat " + stat.getKey() + ": " + stat.getValue());
+        }
+    }
+
+    @FunctionalInterface
+    private interface ScheduledOperation {
+
+        void run(long intendedTime);
+
+    }
+
 }
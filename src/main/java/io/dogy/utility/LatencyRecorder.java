@@ -0,0 +1,87 @@
+package io.dogy.utility;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.SingleWriterRecorder;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latencies in nanoseconds into one HdrHistogram recorder per writing thread, so recording never contends
+ * with other threads. The per-thread recorders are merged when a snapshot is taken.
+ */
+public class LatencyRecorder {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Queue<SingleWriterRecorder> recorders = new ConcurrentLinkedQueue<>();
+
+    private final ThreadLocal<SingleWriterRecorder> localRecorder = ThreadLocal.withInitial(() -> {
+        SingleWriterRecorder recorder = new SingleWriterRecorder(SIGNIFICANT_DIGITS);
+        recorders.add(recorder);
+        return recorder;
+    });
+
+    private final Histogram accumulated = new Histogram(SIGNIFICANT_DIGITS);
+
+    /**
+     * Record a single latency value.
+     *
+     * @param nanos the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        localRecorder.get().recordValue(Math.max(0, nanos));
+    }
+
+    /**
+     * Record the latency of an operation which started at {@code startNanos}.
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Merge every per-thread recorder into a single histogram. Values recorded after the previous snapshot are
+     * added to the values already seen, so successive snapshots are cumulative.
+     *
+     * @return a copy of all values recorded so far
+     */
+    public synchronized Histogram snapshot() {
+        for (SingleWriterRecorder recorder : recorders) {
+            accumulated.add(recorder.getIntervalHistogram());
+        }
+        return accumulated.copy();
+    }
+
+    /**
+     * Format the percentiles and the throughput of all values recorded so far.
+     *
+     * @param elapsedNanos the wall-clock duration of the measured phase, used to compute throughput
+     * @return a single line summary
+     */
+    public String summary(long elapsedNanos) {
+        return summary(snapshot(), elapsedNanos);
+    }
+
+    public static String summary(Histogram histogram, long elapsedNanos) {
+        long count = histogram.getTotalCount();
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        double throughput = seconds > 0 ? count / seconds : 0;
+
+        return String.format("count=%d, throughput=%.1f ops/s, p50=%s, p90=%s, p99=%s, p99.9=%s, max=%s",
+                count, throughput,
+                formatNanos(histogram.getValueAtPercentile(50)),
+                formatNanos(histogram.getValueAtPercentile(90)),
+                formatNanos(histogram.getValueAtPercentile(99)),
+                formatNanos(histogram.getValueAtPercentile(99.9)),
+                formatNanos(histogram.getMaxValue()));
+    }
+
+    public static String formatNanos(long nanos) {
+        return String.format("%.3fms", nanos / 1_000_000.0);
+    }
+
+}
@@ -5,6 +5,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.time.DurationFormatUtils;
 import org.apache.http.HeaderElement;
 import org.apache.http.HeaderElementIterator;
@@ -19,7 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.time.Duration;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
 
 public class Util {
 
@@ -66,6 +67,58 @@ public class Util {
         return CompletableFuture.anyOf(failure, CompletableFuture.allOf(futures));
     }
 
+    /**
+     * Daemon thread pool for the DAOs whose client library only offers blocking calls.
+     */
+    public static ExecutorService createDaemonPool(String nameFormat, int size) {
+        return Executors.newFixedThreadPool(size, new ThreadFactoryBuilder()
+                .setNameFormat(nameFormat)
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync}, but the task may throw checked exceptions.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(Callable<T> task, Executor executor) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Parse a rate such as {@code 20000}, {@code 20000/s}, {@code 600/m} or {@code 1000/h}.
+     *
+     * @return the rate in operations per second
+     */
+    public static double parseRate(String rate) {
+        String[] parts = rate.trim().split("/");
+        double value = Double.parseDouble(parts[0].trim());
+        if (parts.length == 1) {
+            return value;
+        }
+        switch (parts[1].trim().toLowerCase()) {
+            case "s":
+                return value;
+            case "m":
+                return value / Duration.ofMinutes(1).getSeconds();
+            case "h":
+                return value / Duration.ofHours(1).getSeconds();
+            default:
+                throw new IllegalArgumentException("Unknown rate unit: " + rate);
+        }
+    }
+
     public static String formatDuration(long durationMillis) {
         return DurationFormatUtils.formatDuration(durationMillis, "s.SSS", true);
     }
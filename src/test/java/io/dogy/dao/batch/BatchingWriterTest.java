@@ -0,0 +1,320 @@
+package io.dogy.dao.batch;
+
+import io.dogy.config.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchingWriterTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final Settings setting = Settings.getInstance();
+    private int eventLoopCount;
+    private int queueCapacity;
+    private String overflowPolicy;
+    private int initialSize;
+    private int minSize;
+    private int maxSize;
+    private long lingerMs;
+    private long targetFlushMs;
+    private final List<BatchingWriter<?>> writers = new ArrayList<>();
+
+    @Before
+    public void saveSettings() {
+        eventLoopCount = setting.EVENT_LOOP_COUNT;
+        queueCapacity = setting.BATCH_QUEUE_CAPACITY;
+        overflowPolicy = setting.BATCH_OVERFLOW_POLICY;
+        initialSize = setting.BATCH_INITIAL_SIZE;
+        minSize = setting.BATCH_MIN_SIZE;
+        maxSize = setting.BATCH_MAX_SIZE;
+        lingerMs = setting.BATCH_LINGER_MS;
+        targetFlushMs = setting.BATCH_TARGET_FLUSH_MS;
+
+        setting.EVENT_LOOP_COUNT = 1;
+        setting.BATCH_QUEUE_CAPACITY = 1000;
+        setting.BATCH_OVERFLOW_POLICY = "BLOCK";
+        setting.BATCH_INITIAL_SIZE = 10;
+        setting.BATCH_MIN_SIZE = 2;
+        setting.BATCH_MAX_SIZE = 100;
+        setting.BATCH_LINGER_MS = 5;
+        setting.BATCH_TARGET_FLUSH_MS = 1000;
+    }
+
+    @After
+    public void closeWriters() {
+        for (BatchingWriter<?> writer : writers) {
+            writer.close();
+        }
+    }
+
+    @After
+    public void restoreSettings() {
+        setting.EVENT_LOOP_COUNT = eventLoopCount;
+        setting.BATCH_QUEUE_CAPACITY = queueCapacity;
+        setting.BATCH_OVERFLOW_POLICY = overflowPolicy;
+        setting.BATCH_INITIAL_SIZE = initialSize;
+        setting.BATCH_MIN_SIZE = minSize;
+        setting.BATCH_MAX_SIZE = maxSize;
+        setting.BATCH_LINGER_MS = lingerMs;
+        setting.BATCH_TARGET_FLUSH_MS = targetFlushMs;
+    }
+
+    @Test
+    public void failFastRejectsRecordsWhenQueueIsFull() throws Exception {
+        setting.BATCH_QUEUE_CAPACITY = 2;
+        setting.BATCH_OVERFLOW_POLICY = "FAIL_FAST";
+        // not started, so nothing drains the queue
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+        });
+
+        CompletableFuture<Object> first = writer.submit("a");
+        CompletableFuture<Object> second = writer.submit("b");
+        CompletableFuture<Object> third = writer.submit("c");
+
+        assertFalse(first.isDone());
+        assertFalse(second.isDone());
+        assertFailedWith(third, RejectedExecutionException.class);
+        assertEquals(1, writer.getRejectedCount());
+        assertEquals(0, writer.getDroppedCount());
+        assertEquals(2, writer.getQueueDepth());
+    }
+
+    @Test
+    public void dropOldestFailsOldestRecordWhenQueueIsFull() throws Exception {
+        setting.BATCH_QUEUE_CAPACITY = 2;
+        setting.BATCH_OVERFLOW_POLICY = "DROP_OLDEST";
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+        });
+
+        CompletableFuture<Object> first = writer.submit("a");
+        CompletableFuture<Object> second = writer.submit("b");
+        CompletableFuture<Object> third = writer.submit("c");
+
+        assertFailedWith(first, RejectedExecutionException.class);
+        assertFalse(second.isDone());
+        assertFalse(third.isDone());
+        assertEquals(1, writer.getDroppedCount());
+        assertEquals(0, writer.getRejectedCount());
+        assertEquals(2, writer.getQueueDepth());
+    }
+
+    @Test
+    public void partialFailureFailsOnlyItsOwnRecords() throws Exception {
+        IllegalStateException cause = new IllegalStateException("bad record");
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).startsWith("bad")) {
+                    failures.fail(i, cause);
+                }
+            }
+        });
+
+        // queued before the worker starts, so they are flushed in one batch
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (String record : new String[]{"a", "bad-1", "b", "bad-2", "c"}) {
+            futures.add(writer.submit(record));
+        }
+        writer.start();
+
+        assertSame(BatchingWriter.SUCCESS, futures.get(0).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertSame(cause, failure(futures.get(1)));
+        assertSame(BatchingWriter.SUCCESS, futures.get(2).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertSame(cause, failure(futures.get(3)));
+        assertSame(BatchingWriter.SUCCESS, futures.get(4).get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failuresDoNotLeakIntoTheNextBatch() throws Exception {
+        IllegalStateException cause = new IllegalStateException("bad record");
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                if (batch.get(i).startsWith("bad")) {
+                    failures.fail(i, cause);
+                }
+            }
+        });
+        writer.start();
+
+        assertSame(cause, failure(writer.submit("bad")));
+        assertSame(BatchingWriter.SUCCESS, writer.submit("good").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void handlerExceptionFailsTheWholeBatch() throws Exception {
+        IllegalStateException cause = new IllegalStateException("backend down");
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+            throw cause;
+        });
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(writer.submit("record-" + i));
+        }
+        writer.start();
+
+        for (CompletableFuture<Object> future : futures) {
+            assertSame(cause, failure(future));
+        }
+    }
+
+    @Test
+    public void everyRecordIsFlushedAndCompletedExactlyOnce() throws Exception {
+        setting.EVENT_LOOP_COUNT = 4;
+        int recordCount = 5000;
+
+        Map<String, AtomicInteger> flushCounts = new ConcurrentHashMap<>();
+        IllegalStateException cause = new IllegalStateException("odd record");
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+            for (int i = 0; i < batch.size(); i++) {
+                String record = batch.get(i);
+                flushCounts.computeIfAbsent(record, key -> new AtomicInteger()).incrementAndGet();
+                if (Integer.parseInt(record) % 2 == 1) {
+                    failures.fail(i, cause);
+                }
+            }
+        });
+        writer.start();
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>(recordCount);
+        AtomicInteger completions = new AtomicInteger();
+        for (int i = 0; i < recordCount; i++) {
+            CompletableFuture<Object> future = writer.submit(String.valueOf(i));
+            future.whenComplete((result, e) -> completions.incrementAndGet());
+            futures.add(future);
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .handle((result, e) -> null)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertEquals(recordCount, completions.get());
+        assertEquals(recordCount, flushCounts.size());
+        for (int i = 0; i < recordCount; i++) {
+            assertEquals(1, flushCounts.get(String.valueOf(i)).get());
+
+            CompletableFuture<Object> future = futures.get(i);
+            // a completed future rejects any further completion
+            assertFalse(future.complete(BatchingWriter.SUCCESS));
+            if (i % 2 == 1) {
+                assertSame(cause, failure(future));
+            } else {
+                assertSame(BatchingWriter.SUCCESS, future.get());
+            }
+        }
+    }
+
+    @Test
+    public void slowFlushHalvesTheBatchSize() throws Exception {
+        setting.BATCH_TARGET_FLUSH_MS = 1;
+        BatchingWriter<String> writer = writer((batch, failures) -> Thread.sleep(20));
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < setting.BATCH_INITIAL_SIZE; i++) {
+            futures.add(writer.submit("record-" + i));
+        }
+        writer.start();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        awaitBatchSize(writer, setting.BATCH_INITIAL_SIZE / 2);
+    }
+
+    @Test
+    public void fastFullFlushGrowsTheBatchSize() throws Exception {
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+        });
+
+        List<CompletableFuture<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < setting.BATCH_INITIAL_SIZE; i++) {
+            futures.add(writer.submit("record-" + i));
+        }
+        writer.start();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        awaitBatchSize(writer, setting.BATCH_INITIAL_SIZE + setting.BATCH_MIN_SIZE);
+    }
+
+    @Test
+    public void closeStopsWorkersAndFailsQueuedRecords() throws Exception {
+        BatchingWriter<String> writer = writer((batch, failures) -> {
+        });
+        writer.start();
+        assertSame(BatchingWriter.SUCCESS, writer.submit("a").get(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        writer.close();
+        awaitNoWorkerThread();
+
+        // nothing drains the queue any more
+        CompletableFuture<Object> future = writer.submit("b");
+        writer.close();
+        assertFailedWith(future, RejectedExecutionException.class);
+    }
+
+    /**
+     * Every writer of a test is closed after it, so no worker keeps running another test's handler.
+     */
+    private BatchingWriter<String> writer(IBatchHandler<String> handler) {
+        BatchingWriter<String> writer = new BatchingWriter<>("test", handler);
+        writers.add(writer);
+        return writer;
+    }
+
+    /**
+     * A worker thread may still be exiting right after its pool reported termination.
+     */
+    private static void awaitNoWorkerThread() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (hasWorkerThread() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertFalse(hasWorkerThread());
+    }
+
+    private static boolean hasWorkerThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("test-writer-") && thread.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The batch size is adapted right after the futures of the batch are completed, so wait for it.
+     */
+    private static void awaitBatchSize(BatchingWriter<?> writer, int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (writer.getBatchSize() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, writer.getBatchSize());
+    }
+
+    private static Throwable failure(CompletableFuture<Object> future) throws Exception {
+        try {
+            future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+        fail("Expected the future to fail");
+        return null;
+    }
+
+    private static void assertFailedWith(CompletableFuture<Object> future, Class<? extends Throwable> type)
+            throws Exception {
+        assertTrue(future.isCompletedExceptionally());
+        assertTrue(type.isInstance(failure(future)));
+    }
+
+}
@@ -0,0 +1,172 @@
+package io.dogy.dao.impl.hbase;
+
+import io.dogy.model.Cursor;
+import io.dogy.model.UserNotify;
+import io.dogy.utility.ULID;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BinaryRowKeyCodecTest {
+
+    private static final String USER_ID = "42";
+    private static final long TIMESTAMP = 1571300000123L;
+    private static final int SALT_AND_HASH_LENGTH = 1 + Long.BYTES;
+    private static final int KEY_LENGTH = SALT_AND_HASH_LENGTH + Long.BYTES + 16;
+
+    @Test
+    public void keysFollowTimelineOrder() {
+        assertKeyOrder(new BinaryRowKeyCodec(16, false), timeline());
+    }
+
+    @Test
+    public void reversedKeysFollowReversedTimelineOrder() {
+        assertKeyOrder(new BinaryRowKeyCodec(16, true), timeline());
+    }
+
+    @Test
+    public void firstKeySortsBeforeEveryRowOfItsMillisecond() {
+        for (boolean reversed : new boolean[]{false, true}) {
+            BinaryRowKeyCodec codec = new BinaryRowKeyCodec(16, reversed);
+            byte[] firstKey = codec.firstKey(USER_ID, TIMESTAMP);
+
+            for (UserNotify userNotify : timeline()) {
+                int result = Bytes.compareTo(codec.encode(userNotify), firstKey);
+                long timestamp = userNotify.getTimestamp();
+                if (timestamp == TIMESTAMP) {
+                    assertTrue(result > 0);
+                } else {
+                    // earlier in key order means older for ascending keys and newer for reversed ones
+                    assertEquals(reversed ? timestamp < TIMESTAMP : timestamp > TIMESTAMP, result > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void decodeTimestampRestoresEncodedTimestamp() {
+        for (boolean reversed : new boolean[]{false, true}) {
+            BinaryRowKeyCodec codec = new BinaryRowKeyCodec(16, reversed);
+            for (UserNotify userNotify : timeline()) {
+                assertEquals(userNotify.getTimestamp(), codec.decodeTimestamp(codec.encode(userNotify)));
+            }
+        }
+    }
+
+    @Test
+    public void keysHaveFixedWidthAndShareTheUserPrefix() {
+        for (boolean reversed : new boolean[]{false, true}) {
+            BinaryRowKeyCodec codec = new BinaryRowKeyCodec(16, reversed);
+            byte[] prefix = Arrays.copyOf(codec.firstKey(USER_ID, TIMESTAMP), SALT_AND_HASH_LENGTH);
+
+            for (UserNotify userNotify : timeline()) {
+                byte[] key = codec.encode(userNotify);
+                assertEquals(KEY_LENGTH, key.length);
+                assertArrayEquals(prefix, Arrays.copyOf(key, SALT_AND_HASH_LENGTH));
+            }
+        }
+    }
+
+    @Test
+    public void saltBucketStaysInRangeAndMatchesSplitKeys() {
+        int saltBuckets = 16;
+        BinaryRowKeyCodec codec = new BinaryRowKeyCodec(saltBuckets, false);
+        byte[][] splitKeys = codec.splitKeys();
+
+        assertEquals(saltBuckets - 1, splitKeys.length);
+        for (int i = 0; i < splitKeys.length; i++) {
+            assertArrayEquals(new byte[]{(byte) (i + 1)}, splitKeys[i]);
+        }
+
+        Set<Integer> buckets = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            int bucket = codec.firstKey(String.valueOf(i), TIMESTAMP)[0] & 0xFF;
+            assertTrue(bucket < saltBuckets);
+            buckets.add(bucket);
+        }
+        // the user hash spreads users over every bucket
+        assertEquals(saltBuckets, buckets.size());
+    }
+
+    @Test
+    public void singleSaltBucketNeedsNoSplitKeys() {
+        BinaryRowKeyCodec codec = new BinaryRowKeyCodec(1, false);
+
+        assertEquals(0, codec.splitKeys().length);
+        assertEquals(0, codec.firstKey(USER_ID, TIMESTAMP)[0]);
+    }
+
+    @Test
+    public void saltBucketsOutsideOneByteAreRejected() {
+        for (int saltBuckets : new int[]{0, 257}) {
+            try {
+                new BinaryRowKeyCodec(saltBuckets, false);
+                fail("Expected invalid salt buckets: " + saltBuckets);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Keys compare as unsigned bytes, so each key must sort strictly after the previous notification's key in
+     * timeline order, or strictly before it when the timestamp is reversed.
+     */
+    private static void assertKeyOrder(BinaryRowKeyCodec codec, List<UserNotify> timeline) {
+        timeline.sort(Cursor.ORDER);
+        for (int i = 1; i < timeline.size(); i++) {
+            int result = Bytes.compareTo(codec.encode(timeline.get(i - 1)), codec.encode(timeline.get(i)));
+            String message = timeline.get(i - 1).getNotifyID() + " and " + timeline.get(i).getNotifyID();
+            if (codec.isTimestampReversed()) {
+                assertTrue(message, result > 0);
+            } else {
+                assertTrue(message, result < 0);
+            }
+        }
+    }
+
+    /**
+     * Notifications around {@link #TIMESTAMP}, several in the same millisecond. Their ids differ in the sign bit of
+     * each half of the ULID, where a signed comparison would disagree with the unsigned key order.
+     */
+    private static List<UserNotify> timeline() {
+        List<UserNotify> timeline = new ArrayList<>();
+        long msb = TIMESTAMP << 16;
+        long[][] ids = {
+                {msb, 0L},
+                {msb, 1L},
+                {msb, Long.MAX_VALUE},
+                {msb, Long.MIN_VALUE},
+                {msb, -1L},
+                {msb | 0x7FFF, 0L},
+                {msb | 0x8000, 0L},
+                {msb | 0xFFFF, -1L}
+        };
+        for (long[] id : ids) {
+            timeline.add(userNotify(TIMESTAMP, new ULID.Value(id[0], id[1]).toString()));
+        }
+
+        ULID ulid = new ULID();
+        for (long timestamp : new long[]{TIMESTAMP - 1000, TIMESTAMP - 1, TIMESTAMP + 1, TIMESTAMP + 3600000}) {
+            timeline.add(userNotify(timestamp, ulid.nextULID(timestamp)));
+            timeline.add(userNotify(timestamp, ulid.nextULID(timestamp)));
+        }
+        return timeline;
+    }
+
+    private static UserNotify userNotify(long timestamp, String notifyID) {
+        UserNotify userNotify = new UserNotify();
+        userNotify.setUserID(USER_ID);
+        userNotify.setTimestamp(timestamp);
+        userNotify.setNotifyID(notifyID);
+        return userNotify;
+    }
+
+}
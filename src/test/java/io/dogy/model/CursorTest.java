@@ -0,0 +1,127 @@
+package io.dogy.model;
+
+import io.dogy.utility.ULID;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CursorTest {
+
+    private static final long TIMESTAMP = 1571300000123L;
+
+    @Test
+    public void decodeRestoresEncodedCursor() {
+        for (String notifyID : new String[]{new ULID().nextULID(TIMESTAMP), "1", "notify-é漢"}) {
+            String encoded = new Cursor(TIMESTAMP, notifyID).encode();
+            Cursor decoded = Cursor.decode(encoded);
+
+            assertEquals(TIMESTAMP, decoded.getTimestamp());
+            assertEquals(notifyID, decoded.getNotifyID());
+            assertEquals(encoded, decoded.encode());
+        }
+    }
+
+    @Test
+    public void encodedCursorIsUrlSafe() {
+        // a timestamp and an id whose bytes map to '+' and '/' in standard base64
+        String encoded = new Cursor(-1L, "ÿþû").encode();
+
+        assertFalse(encoded.contains("+"));
+        assertFalse(encoded.contains("/"));
+        assertFalse(encoded.contains("="));
+    }
+
+    @Test
+    public void decodeRejectsInvalidCursor() {
+        for (String cursor : new String[]{"not a cursor!", "AAAAAAAAAAA", ""}) {
+            try {
+                Cursor.decode(cursor);
+                fail("Expected an invalid cursor: " + cursor);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void notifyIdBreaksTiesInsideMillisecond() {
+        Cursor cursor = new Cursor(TIMESTAMP, "B");
+
+        assertTrue(cursor.isBeyond(userNotify(TIMESTAMP, "C"), false));
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP, "C"), true));
+        assertTrue(cursor.isBeyond(userNotify(TIMESTAMP, "A"), true));
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP, "A"), false));
+
+        // the notification of the cursor itself is on the previous page in both directions
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP, "B"), false));
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP, "B"), true));
+    }
+
+    @Test
+    public void timestampTakesPrecedenceOverNotifyId() {
+        Cursor cursor = new Cursor(TIMESTAMP, "B");
+
+        assertTrue(cursor.isBeyond(userNotify(TIMESTAMP + 1, "A"), false));
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP + 1, "A"), true));
+        assertTrue(cursor.isBeyond(userNotify(TIMESTAMP - 1, "C"), true));
+        assertFalse(cursor.isBeyond(userNotify(TIMESTAMP - 1, "C"), false));
+    }
+
+    @Test
+    public void pagesFollowingCursorsVisitEveryNotificationOnce() {
+        List<UserNotify> timeline = new ArrayList<>();
+        for (String notifyID : new String[]{"D", "A", "C", "B"}) {
+            timeline.add(userNotify(TIMESTAMP, notifyID));
+        }
+        timeline.add(userNotify(TIMESTAMP - 1, "Z"));
+        timeline.add(userNotify(TIMESTAMP + 1, "0"));
+        timeline.sort(Cursor.ORDER);
+
+        assertEquals(Arrays.asList("Z", "A", "B", "C", "D", "0"), notifyIDs(timeline));
+        for (boolean desc : new boolean[]{false, true}) {
+            List<UserNotify> visited = new ArrayList<>();
+            Cursor cursor = null;
+            while (true) {
+                UserNotify next = null;
+                for (UserNotify userNotify : timeline) {
+                    if ((cursor == null || cursor.isBeyond(userNotify, desc))
+                            && (next == null || (desc ? Cursor.ORDER.compare(userNotify, next) > 0
+                            : Cursor.ORDER.compare(userNotify, next) < 0))) {
+                        next = userNotify;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                visited.add(next);
+                // every cursor goes through its opaque form, like it does through a client
+                cursor = Cursor.decode(Cursor.of(next).encode());
+            }
+
+            List<UserNotify> expected = new ArrayList<>(timeline);
+            expected.sort(desc ? Cursor.ORDER.reversed() : Cursor.ORDER);
+            assertEquals(notifyIDs(expected), notifyIDs(visited));
+        }
+    }
+
+    private static UserNotify userNotify(long timestamp, String notifyID) {
+        UserNotify userNotify = new UserNotify();
+        userNotify.setUserID("1");
+        userNotify.setTimestamp(timestamp);
+        userNotify.setNotifyID(notifyID);
+        return userNotify;
+    }
+
+    private static List<String> notifyIDs(List<UserNotify> userNotifyList) {
+        List<String> notifyIDs = new ArrayList<>(userNotifyList.size());
+        for (UserNotify userNotify : userNotifyList) {
+            notifyIDs.add(userNotify.getNotifyID());
+        }
+        return notifyIDs;
+    }
+
+}